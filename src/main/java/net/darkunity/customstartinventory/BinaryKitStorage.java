@@ -0,0 +1,252 @@
+package net.darkunity.customstartinventory;
+
+import com.google.gson.Gson;
+import net.darkunity.customstartinventory.ServerInventoryManager.KitItem;
+import net.darkunity.customstartinventory.ServerInventoryManager.StarterKit;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Компактное двоичное хранение каталога в файле starter-kits.bin.
+ * Идентификаторы предметов записываются один раз в общую палитру, а наборы ссылаются на них по номеру;
+ * слоты, количества и длины кодируются varint. В конце файла - CRC32 всего содержимого,
+ * поврежденный файл не загружается. Для ручного редактирования каталог экспортируется в JSON
+ * командой /csi kit export и загружается обратно через /csi kit import.
+ *
+ * Формат: "CSIK", версия (байт), палитра (varint число + строки), наборы (varint число + наборы), CRC32 (int).
+ * Набор: имя, флаги (бит 0 - выдача при первом входе), три раздела items/armor/offhand.
+ * Раздел: varint число предметов; предмет: varint (номер в палитре << 1 | есть компоненты),
+ * zigzag-varint слот, zigzag-varint количество, [строка компонентов].
+ * Строки - varint длина и байты UTF-8.
+ */
+public final class BinaryKitStorage implements KitStorage {
+    public static final String FILE_NAME = "starter-kits.bin";
+    private static final String IMPORTED_SUFFIX = ".imported";
+    private static final byte[] MAGIC = {'C', 'S', 'I', 'K'};
+    private static final int VERSION = 1;
+    private static final int FLAG_GIVE_ON_FIRST_JOIN = 1;
+
+    private final Path directory;
+    private final Path file;
+    private final Gson gson;
+
+    public BinaryKitStorage(Path directory, Gson gson) {
+        this.directory = directory;
+        this.file = directory.resolve(FILE_NAME);
+        this.gson = gson;
+    }
+
+    @Override
+    public Path directory() {
+        return directory;
+    }
+
+    @Override
+    public boolean isRelevant(Path fileName) {
+        return fileName.toString().equals(FILE_NAME);
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        Files.createDirectories(directory);
+        if (Files.exists(file)) {
+            return;
+        }
+
+        // Первый запуск в двоичном режиме: переносим наборы из starter-kits.json, если он есть
+        List<StarterKit> kits = new ArrayList<>();
+        Path legacy = directory.resolve(JsonKitStorage.FILE_NAME);
+        if (Files.exists(legacy)) {
+            JsonKitStorage.forEachKit(legacy, gson, kit -> {
+                if (kit.kitName != null && !kit.kitName.isEmpty()) {
+                    kits.add(kit.freeze());
+                }
+            });
+        }
+        KitCatalogWriter.writeAtomically(file, out -> out.write(encode(kits)));
+
+        if (Files.exists(legacy)) {
+            Path renamed = legacy.resolveSibling(legacy.getFileName() + IMPORTED_SUFFIX);
+            Files.move(legacy, renamed, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("[CSI] Импортировано наборов из " + JsonKitStorage.FILE_NAME + " в " + FILE_NAME + ": " +
+                             kits.size() + " (старый файл переименован в " + renamed.getFileName() + ")");
+        } else {
+            System.out.println("[CSI] Создан пустой каталог наборов " + FILE_NAME);
+        }
+    }
+
+    @Override
+    public KitRegistry load(KitRegistry previous) throws IOException {
+        return reload(previous, null);
+    }
+
+    @Override
+    public KitRegistry reload(KitRegistry base, Set<Path> changed) throws IOException {
+        if (!Files.exists(file)) {
+            return base.withEntries(List.of());
+        }
+        // Файл компактный, поэтому читается целиком; неизменные наборы сохраняют свои планы
+        return base.reconcile(decode(Files.readAllBytes(file)));
+    }
+
+    @Override
+    public void persist(KitRegistry snapshot, Set<String> dirtyKeys) throws IOException {
+        byte[] encoded = encode(snapshot.all());
+        KitCatalogWriter.writeAtomically(file, out -> out.write(encoded));
+    }
+
+    static byte[] encode(Collection<StarterKit> kits) throws IOException {
+        // Палитра в порядке первого появления
+        Map<String, Integer> palette = new LinkedHashMap<>();
+        for (StarterKit kit : kits) {
+            for (List<KitItem> section : sections(kit)) {
+                for (KitItem item : section) {
+                    palette.putIfAbsent(item.itemId, palette.size());
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + kits.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+
+        writeVarInt(out, palette.size());
+        for (String itemId : palette.keySet()) {
+            writeString(out, itemId);
+        }
+
+        writeVarInt(out, kits.size());
+        for (StarterKit kit : kits) {
+            writeString(out, kit.kitName);
+            out.writeByte(kit.giveOnFirstJoin ? FLAG_GIVE_ON_FIRST_JOIN : 0);
+            for (List<KitItem> section : sections(kit)) {
+                writeVarInt(out, section.size());
+                for (KitItem item : section) {
+                    boolean hasComponents = item.components != null && !item.components.isEmpty();
+                    writeVarInt(out, palette.get(item.itemId) << 1 | (hasComponents ? 1 : 0));
+                    writeVarInt(out, zigzag(item.slot));
+                    writeVarInt(out, zigzag(item.count));
+                    if (hasComponents) {
+                        writeString(out, item.components);
+                    }
+                }
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<StarterKit> decode(byte[] data) throws IOException {
+        if (data.length < MAGIC.length + 1 + 4) {
+            throw new IOException(FILE_NAME + " слишком короткий");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        int stored = ((data[data.length - 4] & 0xFF) << 24) | ((data[data.length - 3] & 0xFF) << 16)
+                   | ((data[data.length - 2] & 0xFF) << 8) | (data[data.length - 1] & 0xFF);
+        if ((int) crc.getValue() != stored) {
+            throw new IOException(FILE_NAME + " поврежден: контрольная сумма не совпадает");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(FILE_NAME + " не является каталогом наборов");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("неподдерживаемая версия " + FILE_NAME + ": " + version);
+        }
+
+        String[] palette = new String[readVarInt(in)];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = readString(in);
+        }
+
+        int kitCount = readVarInt(in);
+        List<StarterKit> kits = new ArrayList<>(kitCount);
+        for (int k = 0; k < kitCount; k++) {
+            StarterKit kit = new StarterKit(readString(in));
+            kit.giveOnFirstJoin = (in.readUnsignedByte() & FLAG_GIVE_ON_FIRST_JOIN) != 0;
+            for (List<KitItem> section : sections(kit)) {
+                int size = readVarInt(in);
+                for (int i = 0; i < size; i++) {
+                    int header = readVarInt(in);
+                    int index = header >>> 1;
+                    if (index >= palette.length) {
+                        throw new IOException("номер палитры вне диапазона: " + index);
+                    }
+                    KitItem item = new KitItem(palette[index], unzigzag(readVarInt(in)), unzigzag(readVarInt(in)));
+                    if ((header & 1) != 0) {
+                        item.components = readString(in);
+                    }
+                    section.add(item);
+                }
+            }
+            kits.add(kit);
+        }
+        return kits;
+    }
+
+    private static List<List<KitItem>> sections(StarterKit kit) {
+        return List.of(kit.items, kit.armor, kit.offhand);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("слишком длинный varint");
+    }
+
+    // Слот и количество в некорректных наборах могут быть отрицательными
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0) {
+            throw new IOException("некорректная длина строки");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,193 @@
+package net.darkunity.customstartinventory;
+
+import net.darkunity.customstartinventory.ServerInventoryManager.KitItem;
+import net.darkunity.customstartinventory.ServerInventoryManager.StarterKit;
+import net.minecraft.core.HolderLookup;
+import net.minecraft.core.component.DataComponentPatch;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.nbt.TagParser;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.Items;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Скомпилированный план выдачи набора.
+ * Предметы разрешаются в реестре и компоненты декодируются один раз при загрузке каталога,
+ * слоты проверяются заранее, а при выдаче остается только скопировать прототипы в нужные слоты.
+ * Прототипы не покидают этот класс, поэтому остаются неизменными.
+ */
+public final class CompiledKit {
+    private static final int MAIN_SIZE = Inventory.INVENTORY_SIZE;
+    private static final int ARMOR_SIZE = 4;
+
+    private final StarterKit kit;
+    private final int[] itemSlots;
+    private final ItemStack[] itemStacks;
+    private final int[] armorSlots;
+    private final ItemStack[] armorStacks;
+    private final ItemStack offhandStack;
+    private final int invalidEntries;
+
+    private CompiledKit(StarterKit kit, int[] itemSlots, ItemStack[] itemStacks,
+                        int[] armorSlots, ItemStack[] armorStacks, ItemStack offhandStack, int invalidEntries) {
+        this.kit = kit;
+        this.itemSlots = itemSlots;
+        this.itemStacks = itemStacks;
+        this.armorSlots = armorSlots;
+        this.armorStacks = armorStacks;
+        this.offhandStack = offhandStack;
+        this.invalidEntries = invalidEntries;
+    }
+
+    /**
+     * Компилирует набор; некорректные записи пропускаются и логируются один раз
+     */
+    public static CompiledKit compile(StarterKit kit) {
+        int[] invalid = new int[1];
+
+        int[] itemSlots = new int[kit.items.size()];
+        ItemStack[] itemStacks = new ItemStack[kit.items.size()];
+        int itemCount = compileSection(kit, kit.items, MAIN_SIZE, "items", itemSlots, itemStacks, invalid);
+
+        int[] armorSlots = new int[kit.armor.size()];
+        ItemStack[] armorStacks = new ItemStack[kit.armor.size()];
+        int armorCount = compileSection(kit, kit.armor, ARMOR_SIZE, "armor", armorSlots, armorStacks, invalid);
+
+        // Оффхенд всегда занимает слот 0, при нескольких записях побеждает последняя
+        ItemStack offhand = ItemStack.EMPTY;
+        for (KitItem kitItem : kit.offhand) {
+            ItemStack prototype = resolve(kit, kitItem, "offhand", invalid);
+            if (!prototype.isEmpty()) {
+                offhand = prototype;
+            }
+        }
+
+        if (invalid[0] > 0) {
+            System.out.println("[CSI] Набор '" + kit.kitName + "': пропущено некорректных записей: " + invalid[0]);
+        }
+
+        return new CompiledKit(kit,
+            trim(itemSlots, itemCount), trim(itemStacks, itemCount),
+            trim(armorSlots, armorCount), trim(armorStacks, armorCount),
+            offhand, invalid[0]);
+    }
+
+    private static int compileSection(StarterKit kit, List<KitItem> source, int size, String section,
+                                      int[] slots, ItemStack[] stacks, int[] invalid) {
+        int count = 0;
+        for (KitItem kitItem : source) {
+            if (kitItem.slot < 0 || kitItem.slot >= size) {
+                System.out.println("[CSI] Набор '" + kit.kitName + "' (" + section + "): недопустимый слот " +
+                                 kitItem.slot + " для " + kitItem.itemId);
+                invalid[0]++;
+                continue;
+            }
+
+            ItemStack prototype = resolve(kit, kitItem, section, invalid);
+            if (prototype.isEmpty()) {
+                continue;
+            }
+
+            slots[count] = kitItem.slot;
+            stacks[count] = prototype;
+            count++;
+        }
+        return count;
+    }
+
+    private static ItemStack resolve(StarterKit kit, KitItem kitItem, String section, int[] invalid) {
+        ResourceLocation itemId = ResourceLocation.tryParse(kitItem.itemId);
+        Item item = itemId == null ? null : BuiltInRegistries.ITEM.getOptional(itemId).orElse(null);
+
+        if (item == null || item == Items.AIR) {
+            System.out.println("[CSI] Набор '" + kit.kitName + "' (" + section + "): предмет не найден: " + kitItem.itemId);
+            invalid[0]++;
+            return ItemStack.EMPTY;
+        }
+
+        if (kitItem.count <= 0) {
+            System.out.println("[CSI] Набор '" + kit.kitName + "' (" + section + "): недопустимое количество " +
+                             kitItem.count + " для " + kitItem.itemId);
+            invalid[0]++;
+            return ItemStack.EMPTY;
+        }
+
+        ItemStack prototype = new ItemStack(item, kitItem.count);
+        if (kitItem.components != null && !kitItem.components.isEmpty()) {
+            DataComponentPatch patch = decodeComponents(kit, kitItem, section);
+            if (patch == null) {
+                // Предмет выдается без компонентов, запись считается некорректной
+                invalid[0]++;
+            } else {
+                prototype.applyComponents(patch);
+            }
+        }
+        return prototype;
+    }
+
+    private static DataComponentPatch decodeComponents(StarterKit kit, KitItem kitItem, String section) {
+        HolderLookup.Provider registries = ServerInventoryManager.registries();
+        if (registries == null) {
+            System.out.println("[CSI] Набор '" + kit.kitName + "' (" + section + "): реестры недоступны, компоненты " +
+                             kitItem.itemId + " пропущены");
+            return null;
+        }
+
+        try {
+            return DataComponentPatch.CODEC
+                .parse(registries.createSerializationContext(NbtOps.INSTANCE), TagParser.parseTag(kitItem.components))
+                .resultOrPartial(error -> System.out.println("[CSI] Набор '" + kit.kitName + "' (" + section +
+                                                            "): ошибка компонентов " + kitItem.itemId + ": " + error))
+                .orElse(null);
+        } catch (Exception e) {
+            System.out.println("[CSI] Набор '" + kit.kitName + "' (" + section + "): некорректные компоненты " +
+                             kitItem.itemId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static int[] trim(int[] array, int length) {
+        return array.length == length ? array : Arrays.copyOf(array, length);
+    }
+
+    private static ItemStack[] trim(ItemStack[] array, int length) {
+        return array.length == length ? array : Arrays.copyOf(array, length);
+    }
+
+    /**
+     * Раскладывает копии прототипов по слотам игрока; клиент получит их в конце тика
+     */
+    public void applyTo(ServerPlayer player) {
+        Inventory inventory = player.getInventory();
+
+        for (int i = 0; i < itemSlots.length; i++) {
+            inventory.items.set(itemSlots[i], itemStacks[i].copy());
+            InventorySyncBatcher.markMain(player, itemSlots[i]);
+        }
+
+        for (int i = 0; i < armorSlots.length; i++) {
+            inventory.armor.set(armorSlots[i], armorStacks[i].copy());
+            InventorySyncBatcher.markArmor(player, armorSlots[i]);
+        }
+
+        if (!offhandStack.isEmpty()) {
+            inventory.offhand.set(0, offhandStack.copy());
+            InventorySyncBatcher.markOffhand(player);
+        }
+    }
+
+    public StarterKit kit() {
+        return kit;
+    }
+
+    public int invalidEntries() {
+        return invalidEntries;
+    }
+}
@@ -3,6 +3,7 @@ package net.darkunity.customstartinventory;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.arguments.EntityArgument;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
@@ -13,7 +14,11 @@ import net.minecraft.sounds.SoundEvents;
 import net.minecraft.sounds.SoundSource;
 import net.minecraft.world.entity.player.Inventory;
 import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.inventory.AbstractContainerMenu;
+import net.minecraft.world.inventory.ContainerListener;
+import net.minecraft.world.inventory.Slot;
 import net.minecraft.world.item.ItemStack;
+import net.neoforged.bus.api.EventPriority;
 import net.neoforged.bus.api.IEventBus;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.fml.ModContainer;
@@ -37,6 +42,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import com.mojang.brigadier.arguments.StringArgumentType;
 
@@ -56,18 +62,49 @@ public class CustomStartInventory {
     public static ModConfigSpec.BooleanValue SAVE_ACCESSORIES;
     public static ModConfigSpec.EnumValue<AccessoryMode> ACCESSORIES_MODE;
     public static ModConfigSpec.IntValue MONITORING_DURATION;
+    public static ModConfigSpec.BooleanValue ADAPTIVE_MONITORING;
+    public static ModConfigSpec.IntValue STABLE_TICKS;
     public static ModConfigSpec.BooleanValue REACTIVE_CLEANING;
     public static ModConfigSpec.IntValue MAX_REACTIVE_ATTEMPTS;
+    public static ModConfigSpec.EnumValue<CorrectionMode> CORRECTION_MODE;
+    public static ModConfigSpec.EnumValue<ApplyMode> APPLY_MODE;
     public static ModConfigSpec.BooleanValue GLOBAL_INVENTORY_STORAGE;
+    public static ModConfigSpec.IntValue STORAGE_FLUSH_INTERVAL;
+    public static ModConfigSpec.IntValue STORAGE_BACKUPS;
+    public static ModConfigSpec.EnumValue<StorageCompression> STORAGE_COMPRESSION;
     public static ModConfigSpec.BooleanValue SHARE_INVENTORY_BETWEEN_WORLDS;
     public static ModConfigSpec.BooleanValue VERIFY_INVENTORY_MATCH;
     public static ModConfigSpec.BooleanValue VERBOSE_LOGGING;
+    public static ModConfigSpec.IntValue SERVER_WORK_BUDGET;
+    public static ModConfigSpec.IntValue RESTORES_PER_TICK;
+    public static ModConfigSpec.EnumValue<KitStorageMode> KIT_STORAGE;
+    public static ModConfigSpec.IntValue KIT_DELIVERY_BUDGET;
+    
+    // Реакция на посторонние предметы
+    public enum CorrectionMode {
+        DIFF, FULL
+    }
     
     // Энум для режимов аксессуаров
     public enum AccessoryMode {
         AUTO, CURIOS, ACCESSORIES, BOTH, NONE
     }
     
+    // Энум для момента выдачи сохраненного инвентаря
+    public enum ApplyMode {
+        MONITOR, ON_LOAD
+    }
+    
+    // Энум для сжатия файлов глобального хранилища (номер значения записывается в файл - порядок не менять)
+    public enum StorageCompression {
+        NONE, GZIP, DEFLATE
+    }
+    
+    // Энум для форматов хранения наборов
+    public enum KitStorageMode {
+        JSON, SHARDED, BINARY
+    }
+    
     // ============================================================================
     // СТАТУС API (ОБНАРУЖЕНИЕ)
     // ============================================================================
@@ -81,47 +118,118 @@ public class CustomStartInventory {
     
     private static final Map<UUID, PlayerMonitorData> activeMonitors = new HashMap<>();
     private static final Set<UUID> processedPlayers = new HashSet<>();
+    // Режим ON_LOAD: инвентарь выдан при загрузке данных, ждет входа игрока
+    private static final Map<UUID, SavedInventory> appliedOnLoad = new HashMap<>();
     private static MinecraftServer currentServer;
-    private static Path globalStorageDir;
+    // Глобальное хранилище (csi_storage); null, если отключено
+    private static PlayerInventoryStorage globalStorage;
+    // Очередь допуска к восстановлению (режим MONITOR)
+    private static RestoreAdmissionQueue admissions;
+    // Наблюдаемые задержки вторжений для адаптивного мониторинга
+    private static IntrusionProfile intrusionProfile;
+    // Каждое EXPLORATION_INTERVAL-е окно идет полностью, чтобы профиль видел и поздние вторжения
+    private static final int EXPLORATION_INTERVAL = 10;
+    private static final int PROFILE_SAVE_INTERVAL = 16;
+    private static int monitorsStarted;
+    // Истории вторжений по игрокам; хранятся до остановки сервера
+    private static final Map<UUID, IntrusionHistory> intrusionHistory = new HashMap<>();
+    public static final String INTRUSIONS_EXPORT_FILE = "intrusions-export.csv";
     
     // Класс для мониторинга инвентаря игрока
     private static class PlayerMonitorData {
         final ServerPlayer player;
         final String playerName;
         final CustomStartInventory csiInstance; // Добавляем ссылку на экземпляр
-        int monitoringTicksRemaining;
+        // Тики планировщика: начало окна, его текущий конец и предел продления
+        final long startTick;
+        long endTick;
+        final long maxEndTick;
+        // Тик последнего вторжения (-1 - вторжений не было)
+        long lastIntrusionTick = -1;
         int lastItemCount = 0;
         boolean hasGivenInventory = false;
         int reactiveCleaningCount = 0;
-        List<ItemSnapshot> itemHistory = new ArrayList<>();
         boolean isFirstCheck = true;
-        
-        PlayerMonitorData(ServerPlayer player, int durationTicks, CustomStartInventory instance) {
+        // Сохраненный инвентарь, декодированный один раз на все окно мониторинга
+        final SavedInventory saved;
+        // Отпечаток текущего инвентаря, обновляется по измененным слотам
+        final InventoryFingerprint live;
+        // Слушатель слотов inventoryMenu: проверка планируется только после изменения инвентаря
+        final ContainerListener listener;
+        // Задачи планировщика: ближайшая проверка и закрытие окна
+        TickScheduler.Handle checkTask;
+        TickScheduler.Handle finishTask;
+        
+        PlayerMonitorData(ServerPlayer player, int durationTicks, int maxDurationTicks, CustomStartInventory instance, SavedInventory saved) {
             this.player = player;
             this.playerName = player.getName().getString();
             this.csiInstance = instance; // Сохраняем экземпляр
-            this.monitoringTicksRemaining = durationTicks;
+            this.startTick = CustomstartinventoryMod.SCHEDULER.currentTick();
+            this.endTick = startTick + durationTicks;
+            this.maxEndTick = startTick + maxDurationTicks;
             this.lastItemCount = instance.countAllItems(player); // Теперь можно вызывать
+            this.saved = saved;
+            this.live = new InventoryFingerprint(player.registryAccess());
+            this.listener = new ContainerListener() {
+                @Override
+                public void slotChanged(AbstractContainerMenu menu, int slotIndex, ItemStack stack) {
+                    // Слоты крафта не относятся к инвентарю
+                    Slot slot = menu.getSlot(slotIndex);
+                    if (slot.container == player.getInventory()) {
+                        // Стак мог измениться на месте - отпечаток пересчитает этот слот
+                        live.markChanged(slot.getContainerSlot());
+                        requestCheck();
+                    }
+                }
+                
+                @Override
+                public void dataChanged(AbstractContainerMenu menu, int dataSlotIndex, int value) {}
+            };
+            player.inventoryMenu.addSlotListener(listener);
         }
-    }
-    
-    // Снимок предмета для истории
-    private static class ItemSnapshot {
-        final String itemId;
-        final int slot;
-        final int count;
-        final long timestamp;
         
-        ItemSnapshot(String itemId, int slot, int count) {
-            this.itemId = itemId;
-            this.slot = slot;
-            this.count = count;
-            this.timestamp = System.currentTimeMillis();
+        // Проверка в следующем тике (повторные запросы в одном тике объединяются)
+        void requestCheck() {
+            if (checkTask == null || checkTask.isDone()) {
+                checkTask = CustomstartinventoryMod.queueServerWork(1, player.getUUID(), () -> csiInstance.runMonitorCheck(this));
+            }
         }
         
-        @Override
-        public String toString() {
-            return slot + ":" + itemId + "x" + count;
+        // Закрытие окна на тике endTick (прежняя задача закрытия отменяется)
+        void scheduleFinish() {
+            if (finishTask != null) {
+                finishTask.cancel();
+            }
+            int delay = (int) Math.max(1, endTick - CustomstartinventoryMod.SCHEDULER.currentTick());
+            finishTask = CustomstartinventoryMod.queueServerWork(delay, player.getUUID(), () -> csiInstance.finishMonitoring(this));
+        }
+        
+        // Вторжение: в адаптивном режиме окно продлевается до stableTicks тиков тишины, но не дальше предела
+        void recordIntrusion(boolean adaptive, int stableTicks) {
+            long now = CustomstartinventoryMod.SCHEDULER.currentTick();
+            lastIntrusionTick = now;
+            if (!adaptive) {
+                return;
+            }
+            long extended = Math.min(maxEndTick, Math.max(endTick, now + stableTicks));
+            if (extended != endTick) {
+                endTick = extended;
+                scheduleFinish();
+            }
+        }
+        
+        int ticksRemaining() {
+            return (int) Math.max(0, endTick - CustomstartinventoryMod.SCHEDULER.currentTick());
+        }
+        
+        void detach() {
+            player.inventoryMenu.removeSlotListener(listener);
+            if (checkTask != null) {
+                checkTask.cancel();
+            }
+            if (finishTask != null) {
+                finishTask.cancel();
+            }
         }
     }
     
@@ -163,15 +271,36 @@ public class CustomStartInventory {
         MONITORING_DURATION = builder
             .comment("Продолжительность мониторинга инвентаря (в тиках, 20 тиков = 1 секунда).")
             .defineInRange("MonitoringDuration", 20, 60, 200);
+        ADAPTIVE_MONITORING = builder
+            .comment("Адаптивный мониторинг: окно заканчивается, когда прошло обычное для этой сборки время вторжений посторонних предметов и инвентарь не менялся StableTicks тиков; каждое вторжение продлевает окно. MonitoringDuration становится максимальной длиной окна. Время вторжений изучается по наблюдениям (файл intrusion-profile.json), пока наблюдений мало - используется полное окно.")
+            .define("AdaptiveMonitoring", true);
+        STABLE_TICKS = builder
+            .comment("Сколько тиков инвентарь должен оставаться без посторонних предметов, чтобы адаптивный мониторинг завершился.")
+            .defineInRange("StableTicks", 10, 1, 100);
         REACTIVE_CLEANING = builder
             .comment("Реактивная очистка: мгновенно очищать любые появившиеся предметы.")
             .define("ReactiveCleaning", true);
         MAX_REACTIVE_ATTEMPTS = builder
             .comment("Максимальное количество реактивных очисток.")
             .defineInRange("MaxReactiveAttempts", 1, 5, 20);
+        CORRECTION_MODE = builder
+            .comment("Реактивная очистка: DIFF (исправлять только слоты и аксессуары, отличающиеся от сохраненных), FULL (очистить все и выдать инвентарь заново).")
+            .defineEnum("CorrectionMode", CorrectionMode.DIFF);
+        APPLY_MODE = builder
+            .comment("Когда выдавать сохраненный инвентарь: MONITOR (после входа, с окном мониторинга и реактивной очисткой), ON_LOAD (при загрузке данных игрока, до обработчиков входа других модов; вместо окна мониторинга - одна проверка в конце тика входа). В режиме ON_LOAD сервер не ждет диск: если глобального сохранения еще нет в памяти (первый вход после запуска), его чтение начинается при загрузке данных игрока, а инвентарь выдается после входа, как в MONITOR.")
+            .defineEnum("ApplyMode", ApplyMode.MONITOR);
         GLOBAL_INVENTORY_STORAGE = builder
             .comment("Сохранять инвентарь глобально (доступно во всех мирах) вместо локального сохранения в каждом мире.")
             .define("GlobalInventoryStorage", true);
+        STORAGE_FLUSH_INTERVAL = builder
+            .comment("Как часто сохранения глобального хранилища записываются на диск (в секундах). Несколько сохранений игрока за это время дают одну запись файла; при остановке сервера записываются все сохранения.")
+            .defineInRange("StorageFlushSeconds", 5, 1, 300);
+        STORAGE_BACKUPS = builder
+            .comment("Сколько прежних версий файла сохранения хранить для каждого игрока. Если файл поврежден, загружается самая новая целая версия.")
+            .defineInRange("StorageBackups", 2, 0, 10);
+        STORAGE_COMPRESSION = builder
+            .comment("Сжатие файлов глобального хранилища: NONE (без сжатия), GZIP (сильнее сжимает), DEFLATE (быстрее). Файлы в другом формате переписываются при следующем чтении.")
+            .defineEnum("StorageCompression", StorageCompression.DEFLATE);
         SHARE_INVENTORY_BETWEEN_WORLDS = builder
             .comment("Использовать один сохраненный инвентарь для всех миров (включая разные типы миров: выживание, креатив и т.д.)")
             .define("ShareInventoryBetweenWorlds", true);
@@ -181,6 +310,12 @@ public class CustomStartInventory {
         VERBOSE_LOGGING = builder
             .comment("Подробное логирование (может создавать много сообщений).")
             .define("VerboseLogging", false);
+        SERVER_WORK_BUDGET = builder
+            .comment("Время на работу CSI (проверки мониторов, выдачу инвентаря) за один тик (в микросекундах). Остальная работа переносится на следующие тики, игроки обслуживаются по очереди.")
+            .defineInRange("ServerWorkBudgetMicros", 5000, 500, 50000);
+        RESTORES_PER_TICK = builder
+            .comment("Сколько игроков за тик получают очистку и запуск мониторинга. При массовом входе остальные ждут в очереди (данные читаются заранее в фоне, посторонние предметы у ожидающих удаляются); возрождающиеся игроки обслуживаются первыми.")
+            .defineInRange("RestoresPerTick", 5, 1, 100);
         builder.pop();
         
         builder.push("Accessories");
@@ -191,6 +326,15 @@ public class CustomStartInventory {
             .comment("Режим работы с аксессуарами: AUTO (попробует оба), CURIOS, ACCESSORIES (WispForest), BOTH (сохранит оба), NONE.")
             .defineEnum("AccessoriesMode", AccessoryMode.AUTO);
         builder.pop();
+        
+        builder.push("Kits");
+        KIT_STORAGE = builder
+            .comment("Формат хранения наборов: JSON (один файл starter-kits.json), SHARDED (файл на каждый набор в папке kits/ с манифестом, старый starter-kits.json импортируется автоматически), BINARY (компактный starter-kits.bin; для правки используйте /csi kit export и /csi kit import).")
+            .defineEnum("KitStorage", KitStorageMode.SHARDED);
+        KIT_DELIVERY_BUDGET = builder
+            .comment("Время на массовую выдачу наборов за один тик (в микросекундах). Остальные игроки получат набор в следующих тиках.")
+            .defineInRange("DeliveryBudgetMicros", 2000, 100, 50000);
+        builder.pop();
     }
     
     // ============================================================================
@@ -208,7 +352,30 @@ public class CustomStartInventory {
         }
         
         // Инициализация системы наборов
-        ServerInventoryManager.init();
+        ServerInventoryManager.init(currentServer);
+        
+        intrusionProfile = IntrusionProfile.load(ServerInventoryManager.configDir(), ServerInventoryManager.GSON);
+        monitorsStarted = 0;
+        
+        admissions = new RestoreAdmissionQueue(new RestoreAdmissionQueue.Restorer() {
+            @Override
+            public void admit(ServerPlayer player, CompoundTag staged) {
+                admitRestoration(player, staged);
+            }
+            
+            @Override
+            public boolean needsRestore(ServerPlayer player, CompoundTag staged) {
+                return CustomStartInventory.this.needsRestore(player, staged);
+            }
+            
+            @Override
+            public void protect(ServerPlayer player) {
+                // Выданный инвентарь - уже законный: такого игрока (ждет только стартовый набор) не очищаем
+                if (!inventoryAlreadyReceived(player)) {
+                    aggressiveClearInventory(player);
+                }
+            }
+        });
         
         System.out.println("[CSI] Инициализация завершена");
         System.out.println("[CSI] Curios: " + hasCurios + ", WispForest: " + hasAccessories);
@@ -218,76 +385,158 @@ public class CustomStartInventory {
 
     @SubscribeEvent
     public void onServerStopping(ServerStoppingEvent event) {
+        // Дописываем отложенные изменения наборов
+        ServerInventoryManager.shutdown();
+        
+        if (admissions != null) {
+            admissions.shutdown();
+            admissions = null;
+        }
+        if (globalStorage != null) {
+            // Дожидаемся записей, поставленных до остановки
+            globalStorage.shutdown();
+            globalStorage = null;
+        }
+        if (intrusionProfile != null) {
+            intrusionProfile.save(ServerInventoryManager.GSON);
+            intrusionProfile = null;
+        }
+        activeMonitors.values().forEach(PlayerMonitorData::detach);
         activeMonitors.clear();
         processedPlayers.clear();
+        appliedOnLoad.clear();
+        intrusionHistory.clear();
+        InventorySyncBatcher.clear();
+        CustomstartinventoryMod.SCHEDULER.clear();
         currentServer = null;
     }
 
-    @SubscribeEvent
+    // Низкий приоритет: планировщик мониторов (обычный приоритет) уже отработал в этом тике
+    @SubscribeEvent(priority = EventPriority.LOW)
     public void onServerTick(ServerTickEvent.Post event) {
-        if (currentServer == null || !MOD_ENABLED.get()) return;
+        if (currentServer == null) return;
         
-        // Обрабатываем всех активных мониторов
-        processActiveMonitors();
+        // Применяем каталог наборов, подготовленный горячей перезагрузкой, и продолжаем массовую выдачу
+        ServerInventoryManager.tick(currentServer);
+        
+        // Допускаем очередных игроков к восстановлению инвентаря
+        if (admissions != null && MOD_ENABLED.get()) {
+            admissions.tick(RESTORES_PER_TICK.get());
+        }
+        
+        // Отправляем клиентам только измененные за тик слоты
+        InventorySyncBatcher.flush();
     }
     
-    private void processActiveMonitors() {
-        Iterator<Map.Entry<UUID, PlayerMonitorData>> iterator = activeMonitors.entrySet().iterator();
+    /**
+     * Режим ON_LOAD: одна проверка после обработчиков входа других модов вместо окна мониторинга
+     */
+    private void verifyAppliedOnLoad(UUID playerId, SavedInventory saved) {
+        ServerPlayer player = currentServer == null ? null : currentServer.getPlayerList().getPlayer(playerId);
+        if (player == null || !MOD_ENABLED.get() || !saved.hasInventory()) {
+            return;
+        }
         
-        while (iterator.hasNext()) {
-            Map.Entry<UUID, PlayerMonitorData> entry = iterator.next();
-            PlayerMonitorData monitor = entry.getValue();
-            UUID playerId = entry.getKey();
-            
-            // Проверяем что игрок онлайн
-            ServerPlayer player = currentServer.getPlayerList().getPlayer(playerId);
-            if (player == null || !player.isAlive()) {
-                System.out.println("[CSI] Игрок " + monitor.playerName + " отключился, удаляем монитор");
-                iterator.remove();
-                continue;
-            }
-            
-            // Проверяем инвентарь
-            int currentItemCount = checkAndReactToInventory(player, monitor);
-            
-            // Обновляем счетчик тиков
-            monitor.monitoringTicksRemaining--;
-            
-            // Логируем первый тик
-            if (monitor.isFirstCheck) {
-                System.out.println("[CSI] Начало мониторинга для " + monitor.playerName + 
-                                 " (" + monitor.monitoringTicksRemaining + " тиков)");
-                System.out.println("[CSI] Начальное количество предметов: " + currentItemCount);
-                monitor.isFirstCheck = false;
+        if (InventoryFingerprint.of(player.getInventory(), player.registryAccess()) != saved.fingerprint()) {
+            System.out.println("[CSI] После входа " + player.getName().getString() + 
+                             " инвентарь изменен другими модами, восстанавливаем сохраненный");
+            logAllItems(player, "проверка после входа");
+            aggressiveClearInventory(player);
+            loadInventory(player, saved);
+        }
+    }
+    
+    /**
+     * Игрок монитора, если он еще в игре; иначе монитор снимается
+     */
+    private ServerPlayer monitoredPlayer(PlayerMonitorData monitor) {
+        UUID playerId = monitor.player.getUUID();
+        if (activeMonitors.get(playerId) != monitor || currentServer == null) {
+            return null; // Монитор уже заменен или снят
+        }
+        
+        ServerPlayer player = currentServer.getPlayerList().getPlayer(playerId);
+        if (player == null || !player.isAlive() || !MOD_ENABLED.get()) {
+            System.out.println("[CSI] Игрок " + monitor.playerName + " отключился, удаляем монитор");
+            stopMonitoring(playerId);
+            return null;
+        }
+        return player;
+    }
+    
+    /**
+     * Проверка монитора; планируется после изменения слотов инвентаря
+     */
+    private void runMonitorCheck(PlayerMonitorData monitor) {
+        ServerPlayer player = monitoredPlayer(monitor);
+        if (player == null) {
+            return;
+        }
+        
+        int currentItemCount = checkAndReactToInventory(player, monitor);
+        
+        // Логируем первую проверку
+        if (monitor.isFirstCheck) {
+            System.out.println("[CSI] Начало мониторинга для " + monitor.playerName + 
+                             " (" + monitor.ticksRemaining() + " тиков)");
+            System.out.println("[CSI] Начальное количество предметов: " + currentItemCount);
+            monitor.isFirstCheck = false;
+        }
+        
+        // Пока открыт другой контейнер, inventoryMenu не рассылает изменения - проверяем каждый тик
+        if (player.containerMenu != player.inventoryMenu) {
+            monitor.requestCheck();
+        }
+    }
+    
+    /**
+     * Закрытие окна мониторинга
+     */
+    private void finishMonitoring(PlayerMonitorData monitor) {
+        ServerPlayer player = monitoredPlayer(monitor);
+        if (player == null) {
+            return;
+        }
+        
+        System.out.println("[CSI] Мониторинг завершен для " + monitor.playerName + 
+                         " через " + (CustomstartinventoryMod.SCHEDULER.currentTick() - monitor.startTick) + " тиков");
+        recordIntrusionSample(monitor);
+        
+        // Проверяем, совпадает ли инвентарь
+        if (VERIFY_INVENTORY_MATCH.get() && inventoryMatchesSaved(player, monitor)) {
+            System.out.println("[CSI] Инвентарь уже совпадает с сохраненным");
+            monitor.hasGivenInventory = true;
+        } else {
+            // Дополнительная проверка перед выдачей
+            int itemCount = countAllItems(player);
+            if (itemCount > 0) {
+                System.out.println("[CSI] Предупреждение: " + itemCount + " предметов осталось перед выдачей!");
+                aggressiveClearInventory(player);
             }
             
-            // Если мониторинг завершен
-            if (monitor.monitoringTicksRemaining <= 0) {
-                System.out.println("[CSI] Мониторинг завершен для " + monitor.playerName);
-                
-                // Проверяем, совпадает ли инвентарь
-                if (VERIFY_INVENTORY_MATCH.get() && inventoryMatchesSaved(player)) {
-                    System.out.println("[CSI] Инвентарь уже совпадает с сохраненным");
-                    monitor.hasGivenInventory = true;
-                } else {
-                    // Дополнительная проверка перед выдачей
-                    int itemCount = countAllItems(player);
-                    if (itemCount > 0) {
-                        System.out.println("[CSI] Предупреждение: " + itemCount + " предметов осталось перед выдачей!");
-                        aggressiveClearInventory(player);
-                    }
-                    
-                    if (!monitor.hasGivenInventory) {
-                        System.out.println("[CSI] Выдаем сохраненный инвентарь");
-                        giveSavedInventory(player);
-                        monitor.hasGivenInventory = true;
-                    }
-                }
-                
-                iterator.remove();
-                processedPlayers.add(playerId);
+            if (!monitor.hasGivenInventory) {
+                System.out.println("[CSI] Выдаем сохраненный инвентарь");
+                giveSavedInventory(player, monitor.saved);
+                monitor.hasGivenInventory = true;
             }
         }
+        
+        stopMonitoring(player.getUUID());
+        processedPlayers.add(player.getUUID());
+    }
+    
+    /**
+     * Наблюдение для профиля вторжений: задержка последнего вторжения от начала окна
+     */
+    private void recordIntrusionSample(PlayerMonitorData monitor) {
+        if (intrusionProfile == null) {
+            return;
+        }
+        int delay = monitor.lastIntrusionTick < 0 ? 0 : (int) (monitor.lastIntrusionTick - monitor.startTick);
+        intrusionProfile.record(delay);
+        if (intrusionProfile.samples() % PROFILE_SAVE_INTERVAL == 0) {
+            intrusionProfile.saveInBackground(ServerInventoryManager.GSON);
+        }
     }
     
     /**
@@ -297,7 +546,7 @@ public class CustomStartInventory {
         int currentItemCount = countAllItems(player);
         
         // Проверяем, совпадает ли инвентарь с сохраненным (если включена проверка)
-        if (VERIFY_INVENTORY_MATCH.get() && inventoryMatchesSaved(player)) {
+        if (VERIFY_INVENTORY_MATCH.get() && inventoryMatchesSaved(player, monitor)) {
             System.out.println("[CSI] Инвентарь совпадает с сохраненным, пропускаем реакцию");
             monitor.lastItemCount = currentItemCount;
             monitor.hasGivenInventory = true; // Помечаем как выданный
@@ -307,7 +556,7 @@ public class CustomStartInventory {
         // Если предметы появились
         if (currentItemCount > 0) {
             // Проверяем, не наши ли это предметы
-            if (VERIFY_INVENTORY_MATCH.get() && !inventoryMatchesSaved(player)) {
+            if (VERIFY_INVENTORY_MATCH.get()) {
                 System.out.println("[CSI] Обнаружены ПОСТОРОННИЕ предметы у " + player.getName().getString() + 
                                  ": " + currentItemCount + " шт.");
                 
@@ -320,7 +569,8 @@ public class CustomStartInventory {
                     logAllItems(player, "обнаружение посторонних");
                     
                     // Сохраняем в историю
-                    saveItemSnapshot(player, monitor);
+                    recordIntrusionSlots(player, monitor);
+                    monitor.recordIntrusion(ADAPTIVE_MONITORING.get(), STABLE_TICKS.get());
                     
                     // Реактивная очистка
                     if (REACTIVE_CLEANING.get() && monitor.reactiveCleaningCount < MAX_REACTIVE_ATTEMPTS.get()) {
@@ -342,7 +592,7 @@ public class CustomStartInventory {
      */
     private void performReactiveCleaning(ServerPlayer player, PlayerMonitorData monitor) {
         // Проверяем еще раз перед очисткой
-        if (VERIFY_INVENTORY_MATCH.get() && inventoryMatchesSaved(player)) {
+        if (VERIFY_INVENTORY_MATCH.get() && inventoryMatchesSaved(player, monitor)) {
             System.out.println("[CSI] Инвентарь уже совпадает с сохраненным, пропускаем очистку");
             monitor.hasGivenInventory = true;
             return;
@@ -354,17 +604,59 @@ public class CustomStartInventory {
                          "/" + MAX_REACTIVE_ATTEMPTS.get() + " ===");
         System.out.println("[CSI] Для игрока: " + player.getName().getString());
         
-        // Агрессивная очистка
-        aggressiveClearInventory(player);
-        
-        // Выдача инвентаря
-        giveSavedInventory(player);
+        if (CORRECTION_MODE.get() == CorrectionMode.DIFF && monitor.saved != null) {
+            // Исправляем только отличающиеся слоты
+            correctSavedInventory(player, monitor.saved, !monitor.hasGivenInventory);
+        } else {
+            // Агрессивная очистка
+            aggressiveClearInventory(player);
+            
+            // Выдача инвентаря
+            giveSavedInventory(player, monitor.saved);
+        }
         monitor.hasGivenInventory = true;
         
         System.out.println("[CSI] === РЕАКТИВНАЯ ОЧИСТКА ЗАВЕРШЕНА ===");
     }
 
-    @SubscribeEvent
+    /**
+     * Режим ON_LOAD: инвентарь выдается сразу после чтения данных игрока,
+     * до того как другие моды увидят игрока в событиях входа
+     */
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
+    public void onPlayerLoadFromFile(PlayerEvent.LoadFromFile event) {
+        if (!MOD_ENABLED.get() || APPLY_MODE.get() != ApplyMode.ON_LOAD ||
+            !(event.getEntity() instanceof ServerPlayer player)) {
+            return;
+        }
+        
+        if (!inventoryAlreadyReceived(player)) {
+            applySavedInventoryOnLoad(player);
+        }
+    }
+    
+    private SavedInventory applySavedInventoryOnLoad(ServerPlayer player) {
+        // Диск внутри тика не ждем: если файл еще читается, инвентарь выдаст очередь восстановления после входа
+        CompoundTag data = readyCsiData(player);
+        if (data == null) {
+            System.out.println("[CSI] Сохранение " + player.getName().getString() + " еще читается, выдача после входа");
+            return null;
+        }
+        SavedInventory saved = SavedInventory.decode(data, player.registryAccess());
+        if (saved == null) {
+            return null;
+        }
+        
+        System.out.println("[CSI] Выдача инвентаря при загрузке данных " + player.getName().getString());
+        aggressiveClearInventory(player);
+        if (loadInventory(player, saved)) {
+            markInventoryReceived(player);
+        }
+        appliedOnLoad.put(player.getUUID(), saved);
+        return saved;
+    }
+
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
     public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
         if (!MOD_ENABLED.get() || !(event.getEntity() instanceof ServerPlayer player)) {
             return;
@@ -374,28 +666,91 @@ public class CustomStartInventory {
         
         // Сбрасываем статусы
         processedPlayers.remove(player.getUUID());
-        activeMonitors.remove(player.getUUID());
-        
-        // Проверяем, нужно ли выдавать стандартный набор (первый вход)
-        if (shouldGiveStarterKit(player)) {
-            ServerInventoryManager.giveDefaultKitOnFirstJoin(player);
-            markStarterKitReceived(player);
-            return; // Не запускаем мониторинг для нового игрока
+        stopMonitoring(player.getUUID());
+        
+        // Режим ON_LOAD: инвентарь уже выдан при загрузке, окно мониторинга не нужно
+        if (APPLY_MODE.get() == ApplyMode.ON_LOAD) {
+            SavedInventory applied = appliedOnLoad.remove(player.getUUID());
+            if (applied == null && !inventoryAlreadyReceived(player)) {
+                // Данные загружены без LoadFromFile (например, хост одиночной игры)
+                applied = applySavedInventoryOnLoad(player);
+                appliedOnLoad.remove(player.getUUID());
+            }
+            if (applied != null) {
+                if (applied.hasItems() && SHOW_WELCOME_MESSAGE.get() && !HIDE_CHAT_MESSAGES.get()) {
+                    player.sendSystemMessage(Component.literal("§a[CSI] §fStarting inventory received!"));
+                }
+                SavedInventory verified = applied;
+                UUID playerId = player.getUUID();
+                CustomstartinventoryMod.queueServerWork(1, playerId, () -> verifyAppliedOnLoad(playerId, verified));
+                processedPlayers.add(player.getUUID());
+                return;
+            }
         }
         
-        // Проверяем, нужно ли выдавать сохраненный инвентарь
-        if (!shouldGiveInventoryOnWorldJoin(player)) {
+        // Проверяем, нужно ли выдавать сохраненный инвентарь или стартовый набор (файл прочитает очередь)
+        if (inventoryAlreadyReceived(player) && !starterKitPending(player)) {
             System.out.println("[CSI] Игроку " + player.getName().getString() + " не нужно выдавать инвентарь");
             processedPlayers.add(player.getUUID());
             return;
         }
         
-        // Немедленная очистка при входе
-        System.out.println("[CSI] Немедленная очистка при входе для " + player.getName().getString());
+        // Очистка и мониторинг - когда подойдет очередь; до этого посторонние предметы удаляются
+        admissions.submit(player, RestoreAdmissionQueue.Priority.JOINING, stageSavedData(player));
+    }
+    
+    // Данные требуют восстановления: есть сохранение, и оно еще не выдавалось
+    private boolean needsRestore(ServerPlayer player, CompoundTag staged) {
+        return SavedInventory.isPresent(staged) && !inventoryAlreadyReceived(player);
+    }
+    
+    /**
+     * Игрок дошел до очереди восстановления: данные уже прочитаны
+     */
+    private void admitRestoration(ServerPlayer player, CompoundTag staged) {
+        // Данные уже у очереди - глобальному хранилищу держать их в памяти больше не нужно
+        PlayerInventoryStorage storage = globalStorage();
+        if (storage != null) {
+            storage.release(player.getUUID());
+        }
+        
+        SavedInventory saved = SavedInventory.decode(staged, player.registryAccess());
+        if (saved == null) {
+            // Сохранения нет - первый вход: стартовый набор вместо мониторинга
+            if (starterKitPending(player)) {
+                ServerInventoryManager.giveDefaultKitOnFirstJoin(player);
+                markStarterKitReceived(player);
+            } else {
+                System.out.println("[CSI] Игроку " + player.getName().getString() + " не нужно выдавать инвентарь");
+            }
+            processedPlayers.add(player.getUUID());
+            return;
+        }
+        if (inventoryAlreadyReceived(player)) {
+            processedPlayers.add(player.getUUID());
+            return;
+        }
+        
+        System.out.println("[CSI] Немедленная очистка перед выдачей для " + player.getName().getString());
         aggressiveClearInventory(player);
+        startInventoryMonitoring(player, saved);
+    }
+    
+    @SubscribeEvent
+    public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        if (!(event.getEntity() instanceof ServerPlayer player)) {
+            return;
+        }
+        
+        if (admissions != null) {
+            admissions.remove(player.getUUID());
+        }
+        stopMonitoring(player.getUUID());
         
-        // Запускаем мониторинг
-        startInventoryMonitoring(player);
+        PlayerInventoryStorage storage = globalStorage();
+        if (storage != null) {
+            storage.release(player.getUUID());
+        }
     }
     
     @SubscribeEvent
@@ -407,15 +762,14 @@ public class CustomStartInventory {
         System.out.println("[CSI] Игрок " + player.getName().getString() + " возродился");
         
         processedPlayers.remove(player.getUUID());
-        activeMonitors.remove(player.getUUID());
+        stopMonitoring(player.getUUID());
         
-        if (!shouldGiveInventoryOnWorldJoin(player)) {
+        if (inventoryAlreadyReceived(player)) {
             return;
         }
         
-        // Очистка при респавне
-        aggressiveClearInventory(player);
-        startInventoryMonitoring(player);
+        // Игрок уже в мире - обслуживается раньше входящих
+        admissions.submit(player, RestoreAdmissionQueue.Priority.IN_WORLD, stageSavedData(player));
     }
     
     @SubscribeEvent 
@@ -426,7 +780,10 @@ public class CustomStartInventory {
         
         System.out.println("[CSI] Игрок " + player.getName().getString() + " сменил измерение");
         processedPlayers.remove(player.getUUID());
-        activeMonitors.remove(player.getUUID());
+        stopMonitoring(player.getUUID());
+        if (admissions != null) {
+            admissions.remove(player.getUUID());
+        }
     }
     
     @SubscribeEvent
@@ -454,15 +811,36 @@ public class CustomStartInventory {
     // МЕТОДЫ МОНИТОРИНГА И ОЧИСТКИ
     // ============================================================================
     
+    /**
+     * Остановка мониторинга игрока (слушатель слотов снимается)
+     */
+    private void stopMonitoring(UUID playerId) {
+        PlayerMonitorData monitor = activeMonitors.remove(playerId);
+        if (monitor != null) {
+            monitor.detach();
+        }
+    }
+    
     /**
      * Запуск мониторинга инвентаря
      */
-    private void startInventoryMonitoring(ServerPlayer player) {
+    private void startInventoryMonitoring(ServerPlayer player, SavedInventory saved) {
         // Увеличим время мониторинга для надежности
-        int duration = Math.max(MONITORING_DURATION.get(), 40); // минимум 40 тиков (2 секунды)
-        PlayerMonitorData monitor = new PlayerMonitorData(player, duration, this);
+        int maxDuration = Math.max(MONITORING_DURATION.get(), 40); // минимум 40 тиков (2 секунды)
+        int duration = maxDuration;
+        monitorsStarted++;
+        if (ADAPTIVE_MONITORING.get() && intrusionProfile != null && monitorsStarted % EXPLORATION_INTERVAL != 0) {
+            // Окно до обычного времени вторжений в этой сборке, но не короче периода тишины
+            duration = Math.min(maxDuration, Math.max(STABLE_TICKS.get(), intrusionProfile.horizon(maxDuration)));
+        }
+        stopMonitoring(player.getUUID());
+        PlayerMonitorData monitor = new PlayerMonitorData(player, duration, maxDuration, this, saved);
         activeMonitors.put(player.getUUID(), monitor);
         
+        // Монитор работает на планировщике: первая проверка в следующем тике, дальше - по событиям слотов
+        monitor.requestCheck();
+        monitor.scheduleFinish();
+        
         System.out.println("[CSI] Запущен мониторинг для " + player.getName().getString() + 
                          " на " + duration + " тиков");
     }
@@ -481,6 +859,7 @@ public class CustomStartInventory {
         for (int i = 0; i < 36; i++) {
             if (i < inventory.items.size() && !inventory.items.get(i).isEmpty()) {
                 inventory.items.set(i, ItemStack.EMPTY);
+                InventorySyncBatcher.markMain(player, i);
                 clearedCount++;
             }
         }
@@ -489,6 +868,7 @@ public class CustomStartInventory {
         for (int i = 0; i < 4; i++) {
             if (i < inventory.armor.size() && !inventory.armor.get(i).isEmpty()) {
                 inventory.armor.set(i, ItemStack.EMPTY);
+                InventorySyncBatcher.markArmor(player, i);
                 clearedCount++;
             }
         }
@@ -496,6 +876,7 @@ public class CustomStartInventory {
         // Очистка оффхенд (1 слот)
         if (!inventory.offhand.isEmpty() && !inventory.offhand.get(0).isEmpty()) {
             inventory.offhand.set(0, ItemStack.EMPTY);
+            InventorySyncBatcher.markOffhand(player);
             clearedCount++;
         }
         
@@ -504,9 +885,7 @@ public class CustomStartInventory {
             clearAccessories(player);
         }
         
-        // Принудительное обновление
-        player.inventoryMenu.slotsChanged(inventory);
-        player.containerMenu.broadcastFullState();
+        // Клиент получит только очищенные слоты, один раз в конце тика
         
         System.out.println("[CSI] Очищено предметов: " + clearedCount);
         System.out.println("[CSI] === ОЧИСТКА ЗАВЕРШЕНА ===");
@@ -515,7 +894,7 @@ public class CustomStartInventory {
     /**
      * Выдача сохраненного инвентаря
      */
-    private void giveSavedInventory(ServerPlayer player) {
+    private void giveSavedInventory(ServerPlayer player, SavedInventory saved) {
         System.out.println("[CSI] Выдача инвентаря для " + player.getName().getString());
         
         // Перед выдачей еще раз проверяем и очищаем инвентарь
@@ -524,26 +903,72 @@ public class CustomStartInventory {
             aggressiveClearInventory(player);
         }
         
-        boolean loaded = loadInventory(player);
+        boolean loaded = loadInventory(player, saved);
         
         if (loaded) {
-            markInventoryReceived(player);
-            
-            if (SHOW_WELCOME_MESSAGE.get() && !HIDE_CHAT_MESSAGES.get()) {
-                player.sendSystemMessage(Component.literal("§a[CSI] §fStarting inventory received!"));
-            }
-            
-            if (ENABLE_SOUNDS.get()) {
-                player.level().playSound(null, player.getX(), player.getY(), player.getZ(),
-                    SoundEvents.EXPERIENCE_ORB_PICKUP, SoundSource.PLAYERS, 0.5F, 1.0F);
-            }
-            
-            System.out.println("[CSI] Инвентарь успешно выдан");
+            completeInventoryGiven(player);
         } else {
             System.out.println("[CSI] Не удалось загрузить инвентарь");
         }
     }
     
+    /**
+     * Исправление по разнице: меняются только слоты и аксессуары, отличающиеся от сохраненных
+     */
+    private void correctSavedInventory(ServerPlayer player, SavedInventory saved, boolean firstGive) {
+        int corrected = saved.correct(player);
+        int accessoriesCorrected = SAVE_ACCESSORIES.get() ? correctAccessories(player, saved.accessories()) : 0;
+        System.out.println("[CSI] Исправлено слотов: " + corrected + ", аксессуаров: " + accessoriesCorrected);
+        
+        if (firstGive && saved.hasItems()) {
+            completeInventoryGiven(player);
+        }
+    }
+    
+    /**
+     * Аксессуары по разнице; без сохраненных аксессуаров ожидаются пустые слоты
+     */
+    private int correctAccessories(ServerPlayer player, CompoundTag accessoriesTag) {
+        int corrected = 0;
+        
+        if (hasCurios && (ACCESSORIES_MODE.get() == AccessoryMode.CURIOS || 
+                         ACCESSORIES_MODE.get() == AccessoryMode.AUTO || 
+                         ACCESSORIES_MODE.get() == AccessoryMode.BOTH)) {
+            ListTag curios = accessoriesTag != null ? accessoriesTag.getList("Curios", Tag.TAG_COMPOUND) : new ListTag();
+            corrected += Math.max(0, CuriosAccessoriesHandler.correctCurios(player, curios));
+        }
+        
+        if (hasAccessories && (ACCESSORIES_MODE.get() == AccessoryMode.ACCESSORIES || 
+                              ACCESSORIES_MODE.get() == AccessoryMode.AUTO || 
+                              ACCESSORIES_MODE.get() == AccessoryMode.BOTH)) {
+            if (accessoriesTag != null && accessoriesTag.contains("WispForest")) {
+                corrected += Math.max(0, WispForestAccessoriesHandler.correctAccessories(player, accessoriesTag.getCompound("WispForest")));
+            } else {
+                WispForestAccessoriesHandler.clearAccessories(player);
+            }
+        }
+        
+        return corrected;
+    }
+    
+    /**
+     * Инвентарь выдан: отметка, сообщение и звук
+     */
+    private void completeInventoryGiven(ServerPlayer player) {
+        markInventoryReceived(player);
+        
+        if (SHOW_WELCOME_MESSAGE.get() && !HIDE_CHAT_MESSAGES.get()) {
+            player.sendSystemMessage(Component.literal("§a[CSI] §fStarting inventory received!"));
+        }
+        
+        if (ENABLE_SOUNDS.get()) {
+            player.level().playSound(null, player.getX(), player.getY(), player.getZ(),
+                SoundEvents.EXPERIENCE_ORB_PICKUP, SoundSource.PLAYERS, 0.5F, 1.0F);
+        }
+        
+        System.out.println("[CSI] Инвентарь успешно выдан");
+    }
+    
     /**
      * Подсчет всех предметов
      */
@@ -611,38 +1036,20 @@ public class CustomStartInventory {
     }
     
     /**
-     * Сохранение снимка предметов
+     * Запись вторжения: слоты, содержимое которых отличается от сохраненного.
+     * История игрока заводится при первом записанном вторжении.
      */
-    private void saveItemSnapshot(ServerPlayer player, PlayerMonitorData monitor) {
-        List<ItemSnapshot> snapshot = new ArrayList<>();
+    private void recordIntrusionSlots(ServerPlayer player, PlayerMonitorData monitor) {
         Inventory inventory = player.getInventory();
+        long tick = CustomstartinventoryMod.SCHEDULER.currentTick();
         
-        for (int i = 0; i < inventory.items.size(); i++) {
-            ItemStack item = inventory.items.get(i);
-            if (!item.isEmpty()) {
-                snapshot.add(new ItemSnapshot(item.getItem().getDescriptionId(), i, item.getCount()));
-            }
-        }
-        
-        for (int i = 0; i < inventory.armor.size(); i++) {
-            ItemStack item = inventory.armor.get(i);
-            if (!item.isEmpty()) {
-                snapshot.add(new ItemSnapshot(item.getItem().getDescriptionId(), 100 + i, item.getCount()));
+        for (int i = 0; i < SavedInventory.SIZE; i++) {
+            ItemStack item = inventory.getItem(i);
+            if (!item.isEmpty() && (monitor.saved == null || !monitor.saved.slotMatches(i, item))) {
+                intrusionHistory.computeIfAbsent(player.getUUID(), id -> new IntrusionHistory(monitor.playerName))
+                    .record(tick, i, item.getItem(), item.getCount());
             }
         }
-        
-        for (int i = 0; i < inventory.offhand.size(); i++) {
-            ItemStack item = inventory.offhand.get(i);
-            if (!item.isEmpty()) {
-                snapshot.add(new ItemSnapshot(item.getItem().getDescriptionId(), 200 + i, item.getCount()));
-            }
-        }
-        
-        monitor.itemHistory.addAll(snapshot);
-        
-        if (monitor.itemHistory.size() > 10) {
-            monitor.itemHistory = monitor.itemHistory.subList(monitor.itemHistory.size() - 10, monitor.itemHistory.size());
-        }
     }
     
     /**
@@ -663,118 +1070,24 @@ public class CustomStartInventory {
     }
     
     /**
-     * Проверяет, совпадает ли текущий инвентарь с сохраненным
+     * Проверяет, совпадает ли текущий инвентарь с сохраненным (сравнение 64-битных отпечатков)
      */
-    private boolean inventoryMatchesSaved(ServerPlayer player) {
-        // Загружаем сохраненный инвентарь для сравнения
-        CompoundTag savedData = loadFromFile(player);
-        if (!savedData.contains("Inventory")) {
+    private boolean inventoryMatchesSaved(ServerPlayer player, PlayerMonitorData monitor) {
+        SavedInventory saved = monitor.saved;
+        if (saved == null || !saved.hasInventory()) {
             return false; // Нет сохраненного инвентаря
         }
         
-        ListTag savedItems = savedData.getList("Inventory", Tag.TAG_COMPOUND);
-        Inventory currentInventory = player.getInventory();
-        
-        // Создаем карту сохраненных предметов: слот -> предмет
-        Map<Integer, ItemStack> savedItemsMap = new HashMap<>();
-        for (int i = 0; i < savedItems.size(); i++) {
-            CompoundTag slotTag = savedItems.getCompound(i);
-            int slot = slotTag.getByte("Slot") & 255;
-            int type = slotTag.getByte("Type") & 255;
-            
-            if (slotTag.contains("Item")) {
-                CompoundTag itemTag = slotTag.getCompound("Item");
-                ItemStack savedStack = loadItemStackSimple(player, itemTag);
-                if (!savedStack.isEmpty()) {
-                    // Преобразуем слот в абсолютный индекс
-                    int absoluteSlot = getAbsoluteSlot(slot, type);
-                    savedItemsMap.put(absoluteSlot, savedStack);
-                }
-            }
-        }
-        
-        // Проверяем основные слоты
-        for (int i = 0; i < currentInventory.items.size(); i++) {
-            ItemStack currentItem = currentInventory.items.get(i);
-            ItemStack savedItem = savedItemsMap.get(i);
-            
-            if (!itemsMatch(currentItem, savedItem)) {
-                if (VERBOSE_LOGGING.get()) {
-                    System.out.println("[CSI] Несовпадение в основном слоте " + i + 
-                                     ": текущий=" + (currentItem.isEmpty() ? "пусто" : currentItem.getItem().getDescriptionId()) +
-                                     ", сохраненный=" + (savedItem == null ? "null" : savedItem.getItem().getDescriptionId()));
-                }
-                return false;
-            }
-        }
-        
-        // Проверяем броню (слоты 100-103)
-        for (int i = 0; i < currentInventory.armor.size(); i++) {
-            ItemStack currentItem = currentInventory.armor.get(i);
-            ItemStack savedItem = savedItemsMap.get(100 + i);
-            
-            if (!itemsMatch(currentItem, savedItem)) {
-                if (VERBOSE_LOGGING.get()) {
-                    System.out.println("[CSI] Несовпадение в броне " + i);
-                }
-                return false;
+        boolean matches = monitor.live.update(player.getInventory()) == saved.fingerprint();
+        if (!matches && VERBOSE_LOGGING.get()) {
+            int mismatch = saved.firstMismatch(player.getInventory());
+            if (mismatch >= 0) {
+                ItemStack currentItem = player.getInventory().getItem(mismatch);
+                System.out.println("[CSI] Несовпадение в слоте " + mismatch + 
+                                 ": текущий=" + (currentItem.isEmpty() ? "пусто" : currentItem.getItem().getDescriptionId()));
             }
         }
-        
-        // Проверяем оффхенд (слот 106)
-        for (int i = 0; i < currentInventory.offhand.size(); i++) {
-            ItemStack currentItem = currentInventory.offhand.get(i);
-            ItemStack savedItem = savedItemsMap.get(106 + i);
-            
-            if (!itemsMatch(currentItem, savedItem)) {
-                if (VERBOSE_LOGGING.get()) {
-                    System.out.println("[CSI] Несовпадение в оффхенде " + i);
-                }
-                return false;
-            }
-        }
-        
-        return true;
-    }
-    
-    /**
-     * Преобразует относительный слот в абсолютный
-     */
-    private int getAbsoluteSlot(int relativeSlot, int type) {
-        switch (type) {
-            case 0: // Основной инвентарь
-                return relativeSlot;
-            case 1: // Броня
-                return 100 + relativeSlot;
-            case 2: // Оффхенд
-                return 106 + relativeSlot;
-            default:
-                return relativeSlot;
-        }
-    }
-    
-    /**
-     * Сравнивает два предмета
-     */
-    private boolean itemsMatch(ItemStack stack1, ItemStack stack2) {
-        if (stack2 == null) {
-            // Если в сохраненном нет предмета, то текущий должен быть пустым
-            return stack1.isEmpty();
-        }
-        
-        // Оба пустые - совпадают
-        if (stack1.isEmpty() && stack2.isEmpty()) {
-            return true;
-        }
-        
-        // Один пустой, другой нет - не совпадают
-        if (stack1.isEmpty() != stack2.isEmpty()) {
-            return false;
-        }
-        
-        // Сравниваем тип предмета и количество
-        return stack1.getItem() == stack2.getItem() && 
-               stack1.getCount() == stack2.getCount();
+        return matches;
     }
     
     // ============================================================================
@@ -784,66 +1097,87 @@ public class CustomStartInventory {
     private void initGlobalStorage() {
         try {
             Path minecraftDir = Paths.get(".");
-            globalStorageDir = minecraftDir.resolve("csi_storage");
+            Path globalStorageDir = minecraftDir.resolve("csi_storage");
             
             if (!Files.exists(globalStorageDir)) {
                 Files.createDirectories(globalStorageDir);
             }
+            // Файлы читаются и пишутся фоновыми потоками, результаты возвращаются в серверный поток
+            globalStorage = new PlayerInventoryStorage(globalStorageDir, currentServer, STORAGE_FLUSH_INTERVAL.get(), STORAGE_BACKUPS.get(),
+                                                       STORAGE_COMPRESSION.get());
         } catch (Exception e) {
             System.out.println("[CSI] Ошибка инициализации глобального хранилища: " + e.getMessage());
         }
     }
     
-    private Path getPlayerSavePath(ServerPlayer player, boolean useGlobalStorage) {
-        if (useGlobalStorage && globalStorageDir != null) {
-            return globalStorageDir.resolve(player.getUUID().toString() + ".dat");
-        }
-        return null;
+    // Глобальное хранилище, если оно включено
+    private PlayerInventoryStorage globalStorage() {
+        return GLOBAL_INVENTORY_STORAGE.get() ? globalStorage : null;
     }
     
-    private boolean saveToFile(ServerPlayer player, CompoundTag data) {
-        if (!GLOBAL_INVENTORY_STORAGE.get()) {
-            CompoundTag playerData = player.getPersistentData();
-            if (!playerData.contains(Player.PERSISTED_NBT_TAG)) {
-                playerData.put(Player.PERSISTED_NBT_TAG, new CompoundTag());
-            }
-            CompoundTag persisted = playerData.getCompound(Player.PERSISTED_NBT_TAG);
-            persisted.put(MODID, data);
-            return true;
+    /**
+     * Сохраняет данные CSI игрока; в данные игрока - сразу, в глобальный файл - фоновым потоком.
+     * Результат приходит в серверный поток.
+     */
+    private CompletableFuture<Boolean> saveToFile(ServerPlayer player, CompoundTag data) {
+        CompoundTag playerData = player.getPersistentData();
+        if (!playerData.contains(Player.PERSISTED_NBT_TAG)) {
+            playerData.put(Player.PERSISTED_NBT_TAG, new CompoundTag());
         }
+        CompoundTag persisted = playerData.getCompound(Player.PERSISTED_NBT_TAG);
+        persisted.put(MODID, data);
         
-        try {
-            Path savePath = getPlayerSavePath(player, true);
-            if (savePath == null) return false;
-            
-            net.minecraft.nbt.NbtIo.write(data, savePath);
-            
-            CompoundTag playerData = player.getPersistentData();
-            if (!playerData.contains(Player.PERSISTED_NBT_TAG)) {
-                playerData.put(Player.PERSISTED_NBT_TAG, new CompoundTag());
-            }
-            CompoundTag persisted = playerData.getCompound(Player.PERSISTED_NBT_TAG);
-            persisted.put(MODID, data);
-            
-            return true;
-        } catch (Exception e) {
-            System.out.println("[CSI] Ошибка сохранения: " + e.getMessage());
-            return false;
+        PlayerInventoryStorage storage = globalStorage();
+        if (storage == null) {
+            return CompletableFuture.completedFuture(true);
         }
+        return storage.save(player.getUUID(), data);
     }
     
-    private CompoundTag loadFromFile(ServerPlayer player) {
-        if (GLOBAL_INVENTORY_STORAGE.get()) {
-            try {
-                Path savePath = getPlayerSavePath(player, true);
-                if (savePath != null && Files.exists(savePath) && Files.size(savePath) > 0) {
-                    return net.minecraft.nbt.NbtIo.read(savePath);
-                }
-            } catch (Exception e) {
-                // Продолжаем с локальным хранилищем
+    /**
+     * Данные CSI игрока, если их можно получить без ожидания диска; null - файл еще читается.
+     * Чтение при этом запускается, и очередь восстановления потом присоединится к нему.
+     */
+    private CompoundTag readyCsiData(ServerPlayer player) {
+        PlayerInventoryStorage storage = globalStorage();
+        if (storage != null) {
+            CompoundTag global = storage.loadIfReady(player.getUUID());
+            if (!storage.isKnown(player.getUUID())) {
+                return null;
+            }
+            if (global != null) {
+                return global;
             }
         }
-        
+        return persistedCsiData(player);
+    }
+    
+    /**
+     * Данные CSI игрока с результатом в серверном потоке; без глобального файла - данные игрока
+     */
+    private CompletableFuture<CompoundTag> loadCsiData(ServerPlayer player) {
+        CompoundTag persisted = persistedCsiData(player).copy();
+        PlayerInventoryStorage storage = globalStorage();
+        if (storage == null) {
+            return CompletableFuture.completedFuture(persisted);
+        }
+        return storage.load(player.getUUID()).thenApply(global -> global != null ? global : persisted);
+    }
+    
+    /**
+     * Данные CSI для очереди восстановления: файл читается потоком хранилища,
+     * а очередь сама заберет результат в серверном потоке
+     */
+    private CompletableFuture<CompoundTag> stageSavedData(ServerPlayer player) {
+        CompoundTag persisted = persistedCsiData(player).copy();
+        PlayerInventoryStorage storage = globalStorage();
+        if (storage == null) {
+            return CompletableFuture.completedFuture(persisted);
+        }
+        return storage.fetch(player.getUUID()).thenApply(global -> global != null ? global : persisted);
+    }
+    
+    private CompoundTag persistedCsiData(ServerPlayer player) {
         CompoundTag playerData = player.getPersistentData();
         if (!playerData.contains(Player.PERSISTED_NBT_TAG)) {
             return new CompoundTag();
@@ -857,44 +1191,16 @@ public class CustomStartInventory {
         return persisted.getCompound(MODID);
     }
     
-    private boolean hasSavedInventory(ServerPlayer player) {
-        if (GLOBAL_INVENTORY_STORAGE.get()) {
-            Path savePath = getPlayerSavePath(player, true);
-            if (savePath != null && Files.exists(savePath)) {
-                try {
-                    return Files.size(savePath) > 0;
-                } catch (IOException ignored) {}
-            }
-        }
-        
+    // Флаг выдачи лежит в данных игрока - проверка без обращения к диску
+    private boolean inventoryAlreadyReceived(ServerPlayer player) {
         CompoundTag playerData = player.getPersistentData();
         if (playerData.contains(Player.PERSISTED_NBT_TAG)) {
             CompoundTag persisted = playerData.getCompound(Player.PERSISTED_NBT_TAG);
-            if (persisted.contains(MODID)) {
-                CompoundTag csiData = persisted.getCompound(MODID);
-                return csiData.contains("Inventory") || csiData.contains("Accessories");
-            }
+            return persisted.getBoolean("csi_inventory_received");
         }
-        
         return false;
     }
     
-    private boolean shouldGiveInventoryOnWorldJoin(ServerPlayer player) {
-        if (!hasSavedInventory(player)) {
-            return false;
-        }
-        
-        CompoundTag playerData = player.getPersistentData();
-        if (playerData.contains(Player.PERSISTED_NBT_TAG)) {
-            CompoundTag persisted = playerData.getCompound(Player.PERSISTED_NBT_TAG);
-            if (persisted.getBoolean("csi_inventory_received")) {
-                return false;
-            }
-        }
-        
-        return true;
-    }
-    
     private void markInventoryReceived(ServerPlayer player) {
         CompoundTag playerData = player.getPersistentData();
         if (!playerData.contains(Player.PERSISTED_NBT_TAG)) {
@@ -904,7 +1210,8 @@ public class CustomStartInventory {
         persisted.putBoolean("csi_inventory_received", true);
     }
     
-    private boolean shouldGiveStarterKit(ServerPlayer player) {
+    // Стартовый набор еще не выдавался и есть что выдать; наличие сохранения проверяется по прочитанным данным
+    private boolean starterKitPending(ServerPlayer player) {
         CompoundTag playerData = player.getPersistentData();
         if (playerData.contains(Player.PERSISTED_NBT_TAG)) {
             CompoundTag persisted = playerData.getCompound(Player.PERSISTED_NBT_TAG);
@@ -914,11 +1221,6 @@ public class CustomStartInventory {
             }
         }
         
-        // Проверяем, есть ли сохраненный инвентарь
-        if (hasSavedInventory(player)) {
-            return false; // У игрока уже есть сохраненный инвентарь
-        }
-        
         // Проверяем, есть ли стандартный набор для выдачи
         return ServerInventoryManager.getDefaultKit() != null;
     }
@@ -969,10 +1271,10 @@ public class CustomStartInventory {
                         context.getSource().getPlayerOrException(),
                         StringArgumentType.getString(context, "kitname")
                     ))
-                    .then(Commands.argument("target", EntityArgument.player())
-                        .executes(context -> handleKitGive(
+                    .then(Commands.argument("targets", EntityArgument.players())
+                        .executes(context -> handleKitGiveMany(
                             context.getSource(),
-                            EntityArgument.getPlayer(context, "target"),
+                            EntityArgument.getPlayers(context, "targets"),
                             StringArgumentType.getString(context, "kitname")
                         ))
                     )
@@ -1003,7 +1305,21 @@ public class CustomStartInventory {
                 .then(Commands.literal("reload")
                     .executes(context -> handleKitReload(context.getSource()))
                 )
+                .then(Commands.literal("export")
+                    .executes(context -> handleKitExport(context.getSource()))
+                )
+                .then(Commands.literal("import")
+                    .executes(context -> handleKitImport(context.getSource()))
+                )
             )
+            .then(Commands.literal("stats")
+                .executes(context -> handleStats(context.getSource())))
+            .then(Commands.literal("intrusions")
+                .executes(context -> handleIntrusions(context.getSource()))
+                .then(Commands.literal("export")
+                    .executes(context -> handleIntrusionsExport(context.getSource())))
+                .then(Commands.argument("target", EntityArgument.player())
+                    .executes(context -> handleIntrusionsFor(context.getSource(), EntityArgument.getPlayer(context, "target")))))
             .then(Commands.literal("help")
                 .executes(context -> {
                     context.getSource().sendSuccess(() -> Component.literal(
@@ -1011,12 +1327,16 @@ public class CustomStartInventory {
                         "/csi save [player] - Сохранить инвентарь\n" +
                         "/csi load [player] - Загрузить инвентарь\n" +
                         "/csi remove [player] - Удалить сохраненный инвентарь\n" +
+                        "/csi stats - Нагрузка CSI на тик и отложенная работа\n" +
+                        "/csi intrusions [player|export] - Вторжения посторонних предметов\n" +
                         "/csi kit create <name> - Создать набор из инвентаря\n" +
-                        "/csi kit <name> [player] - Выдать набор\n" +
+                        "/csi kit <name> [players] - Выдать набор\n" +
                         "/csi kit list - Список всех наборов\n" +
                         "/csi kit remove <name> - Удалить набор\n" +
                         "/csi kit remove all - Удалить все наборов\n" +
-                        "/csi kit reload - Перезагрузить конфигурацию\n\n" +
+                        "/csi kit reload - Перезагрузить конфигурацию\n" +
+                        "/csi kit export - Выгрузить наборы в " + ServerInventoryManager.EXPORT_FILE + "\n" +
+                        "/csi kit import - Загрузить наборы из " + ServerInventoryManager.EXPORT_FILE + "\n\n" +
                         "Система автоматически следит за инвентарем"
                     ), false);
                     return 1;
@@ -1035,19 +1355,29 @@ public class CustomStartInventory {
             return 0;
         }
 
-        boolean saved = saveInventory(target);
+        // Сохранение сразу действует в памяти; результат команды - после записи файла при ближайшем сбросе
+        CompletableFuture<Boolean> saving = saveInventory(target);
+        if (saving.isDone() && !saving.isCompletedExceptionally()) {
+            return reportSaved(source, target, saving.join()) ? 1 : 0;
+        }
         
-        if (saved) {
-            source.sendSuccess(() -> Component.literal("§aInventory saved from " + target.getName().getString()), false);
-            
-            if (ENABLE_SOUNDS.get()) {
-                playSound(source, target, SoundEvents.NOTE_BLOCK_PLING.value());
-            }
-            return 1;
-        } else {
-            source.sendFailure(Component.literal("§cFailed to save inventory"));
-            return 0;
+        source.sendSuccess(() -> Component.literal("§7Saving inventory of " + target.getName().getString() + "..."), false);
+        saving.whenComplete((written, error) -> reportSaved(source, target, error == null && written));
+        return 0;
+    }
+    
+    private boolean reportSaved(CommandSourceStack source, ServerPlayer target, boolean written) {
+        if (!written) {
+            source.sendFailure(Component.literal("§cFailed to write saved inventory of " + target.getName().getString()));
+            return false;
+        }
+        
+        source.sendSuccess(() -> Component.literal("§aInventory saved from " + target.getName().getString()), false);
+        
+        if (ENABLE_SOUNDS.get() && !target.isRemoved()) {
+            playSound(source, target, SoundEvents.NOTE_BLOCK_PLING.value());
         }
+        return true;
     }
 
     private int handleRemove(CommandSourceStack source, ServerPlayer target) {
@@ -1056,15 +1386,6 @@ public class CustomStartInventory {
             return 0;
         }
         
-        if (GLOBAL_INVENTORY_STORAGE.get()) {
-            Path savePath = getPlayerSavePath(target, true);
-            if (savePath != null && Files.exists(savePath)) {
-                try {
-                    Files.delete(savePath);
-                } catch (IOException ignored) {}
-            }
-        }
-        
         CompoundTag playerData = target.getPersistentData();
         if (playerData.contains(Player.PERSISTED_NBT_TAG)) {
             CompoundTag persisted = playerData.getCompound(Player.PERSISTED_NBT_TAG);
@@ -1072,12 +1393,29 @@ public class CustomStartInventory {
             persisted.remove("csi_inventory_received");
         }
         
+        PlayerInventoryStorage storage = globalStorage();
+        if (storage == null) {
+            return reportRemoved(source, target, true) ? 1 : 0;
+        }
+        
+        // Файл удаляется потоком хранилища; результат команды - после удаления
+        source.sendSuccess(() -> Component.literal("§7Deleting saved inventory of " + target.getName().getString() + "..."), false);
+        storage.delete(target.getUUID()).whenComplete((deleted, error) -> reportRemoved(source, target, error == null && deleted));
+        return 0;
+    }
+    
+    private boolean reportRemoved(CommandSourceStack source, ServerPlayer target, boolean deleted) {
+        if (!deleted) {
+            source.sendFailure(Component.literal("§cNo saved inventory file was deleted for " + target.getName().getString()));
+            return false;
+        }
+        
         source.sendSuccess(() -> Component.literal("§aSaved inventory deleted for " + target.getName().getString()), false);
         
-        if (ENABLE_SOUNDS.get()) {
+        if (ENABLE_SOUNDS.get() && !target.isRemoved()) {
             playSound(source, target, SoundEvents.NOTE_BLOCK_HAT.value());
         }
-        return 1;
+        return true;
     }
     
     private int handleLoad(CommandSourceStack source, ServerPlayer target) {
@@ -1086,22 +1424,47 @@ public class CustomStartInventory {
             return 0;
         }
         
-        aggressiveClearInventory(target);
-        boolean loaded = loadInventory(target);
+        // Данные уже в памяти - результат сразу; иначе сохранение читается в фоне,
+        // а инвентарь меняется и результат сообщается, когда данные придут в серверный поток
+        CompletableFuture<CompoundTag> loading = loadCsiData(target);
+        if (loading.isDone() && !loading.isCompletedExceptionally()) {
+            return applyLoadedInventory(source, target, loading.join()) ? 1 : 0;
+        }
         
-        if (loaded) {
-            source.sendSuccess(() -> Component.literal("§aInventory loaded for " + target.getName().getString()), false);
-            
-            if (ENABLE_SOUNDS.get()) {
-                playSound(source, target, SoundEvents.EXPERIENCE_ORB_PICKUP);
+        source.sendSuccess(() -> Component.literal("§7Reading saved inventory of " + target.getName().getString() + "..."), false);
+        loading.whenComplete((data, error) -> {
+            if (error != null) {
+                source.sendFailure(Component.literal("§cFailed to read saved inventory: " + error.getMessage()));
+            } else if (target.isRemoved()) {
+                source.sendFailure(Component.literal("§c" + target.getName().getString() + " left before the inventory was loaded"));
+            } else {
+                applyLoadedInventory(source, target, data);
             }
-            
-            markInventoryReceived(target);
-            return 1;
-        } else {
+        });
+        return 0;
+    }
+    
+    private boolean applyLoadedInventory(CommandSourceStack source, ServerPlayer target, CompoundTag data) {
+        SavedInventory saved = SavedInventory.decode(data, target.registryAccess());
+        if (saved == null) {
             source.sendFailure(Component.literal("§cNo saved inventory found"));
-            return 0;
+            return false;
+        }
+        
+        aggressiveClearInventory(target);
+        if (!loadInventory(target, saved)) {
+            source.sendFailure(Component.literal("§cNo saved inventory found"));
+            return false;
+        }
+        
+        source.sendSuccess(() -> Component.literal("§aInventory loaded for " + target.getName().getString()), false);
+        
+        if (ENABLE_SOUNDS.get()) {
+            playSound(source, target, SoundEvents.EXPERIENCE_ORB_PICKUP);
         }
+        
+        markInventoryReceived(target);
+        return true;
     }
     
     private int handleKitCreate(CommandSourceStack source, ServerPlayer player, String kitName) {
@@ -1134,8 +1497,143 @@ public class CustomStartInventory {
         return success ? 1 : 0;
     }
 
+    private int handleKitGiveMany(CommandSourceStack source, Collection<ServerPlayer> targets, String kitName) {
+        if (targets.size() == 1) {
+            return handleKitGive(source, targets.iterator().next(), kitName);
+        }
+        if (!MOD_ENABLED.get()) {
+            source.sendFailure(Component.literal("§cMod is disabled"));
+            return 0;
+        }
+        
+        // Несколько получателей: выдача идет по очереди в следующих тиках
+        int queued = ServerInventoryManager.queueKitDelivery(source, targets, kitName);
+        if (queued > 0) {
+            source.sendSuccess(() -> Component.literal("§aНабор '" + kitName + "' поставлен в очередь для " + queued + " игроков"), false);
+        } else {
+            source.sendFailure(Component.literal("§cНабор '" + kitName + "' не найден"));
+        }
+        return queued;
+    }
+
+    private int handleStats(CommandSourceStack source) {
+        TickScheduler scheduler = CustomstartinventoryMod.SCHEDULER;
+        long budgetMicros = SERVER_WORK_BUDGET.get();
+        source.sendSuccess(() -> Component.literal("§a=== Нагрузка CSI ==="), false);
+        source.sendSuccess(() -> Component.literal("§eАктивных мониторов: §f" + activeMonitors.size()), false);
+        int waiting = admissions != null ? admissions.size() : 0;
+        source.sendSuccess(() -> Component.literal("§eВ очереди восстановления: §f" + waiting), false);
+        PlayerInventoryStorage storage = globalStorage;
+        if (storage != null) {
+            source.sendSuccess(() -> Component.literal("§eХранилище: §f" + storage.dirtyCount() + " ждут записи, записано " + 
+                                                       storage.writtenCount() + ", слито " + storage.coalescedCount()), false);
+            source.sendSuccess(() -> Component.literal("§eВ памяти хранилища: §f" + storage.cachedCount()), false);
+            int indexed = storage.indexedCount();
+            source.sendSuccess(() -> Component.literal("§eИгроков с сохранением: §f" + (indexed >= 0 ? indexed : "индекс строится")), false);
+        }
+        IntrusionProfile profile = intrusionProfile;
+        if (profile != null) {
+            String learned = profile.isTrained()
+                ? "окно " + profile.horizon(0) + " тиков (среднее " + String.format("%.1f", profile.mean()) +
+                  ", отклонение " + String.format("%.1f", profile.deviation()) + ", максимум " + profile.maxDelay() + ")"
+                : "обучение";
+            source.sendSuccess(() -> Component.literal("§eПрофиль вторжений: §f" + learned + " §7(" + profile.samples() + " наблюдений)"), false);
+        }
+        source.sendSuccess(() -> Component.literal("§eПоследний тик: §f" + scheduler.lastTickNanos() / 1000 + " мкс §7(бюджет " + budgetMicros + " мкс)"), false);
+        source.sendSuccess(() -> Component.literal("§eОтложено в последнем тике: §f" + scheduler.lastDeferred()), false);
+        source.sendSuccess(() -> Component.literal("§eВсего отложено: §f" + scheduler.totalDeferred()), false);
+        return scheduler.backlog();
+    }
+
+    private int handleIntrusions(CommandSourceStack source) {
+        long players = intrusionHistory.values().stream().filter(history -> history.size() > 0).count();
+        if (players == 0) {
+            source.sendSuccess(() -> Component.literal("§eВторжений не зафиксировано"), false);
+            return 0;
+        }
+        
+        // Сводка по предметам: записей и игроков
+        Map<Integer, int[]> byItem = new HashMap<>();
+        for (IntrusionHistory history : intrusionHistory.values()) {
+            Set<Integer> seen = new HashSet<>();
+            for (int i = 0; i < history.size(); i++) {
+                int[] stats = byItem.computeIfAbsent(history.itemId(i), id -> new int[2]);
+                stats[0]++;
+                if (seen.add(history.itemId(i))) {
+                    stats[1]++;
+                }
+            }
+        }
+        
+        List<Map.Entry<Integer, int[]>> items = new ArrayList<>(byItem.entrySet());
+        items.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+        
+        source.sendSuccess(() -> Component.literal("§a=== Вторжения по предметам ==="), false);
+        for (int i = 0; i < Math.min(10, items.size()); i++) {
+            Map.Entry<Integer, int[]> entry = items.get(i);
+            String item = BuiltInRegistries.ITEM.getKey(BuiltInRegistries.ITEM.byId(entry.getKey())).toString();
+            source.sendSuccess(() -> Component.literal("§e" + item + " §f- " + entry.getValue()[0] + 
+                                                       " §7(игроков: " + entry.getValue()[1] + ")"), false);
+        }
+        source.sendSuccess(() -> Component.literal("§7Игроков с вторжениями: " + players + 
+                                                   "; §e/csi intrusions <player>§7 - подробно, §e/csi intrusions export§7 - в CSV"), false);
+        return items.size();
+    }
+    
+    private int handleIntrusionsFor(CommandSourceStack source, ServerPlayer target) {
+        IntrusionHistory history = intrusionHistory.get(target.getUUID());
+        if (history == null || history.size() == 0) {
+            source.sendSuccess(() -> Component.literal("§eУ " + target.getName().getString() + " вторжений не зафиксировано"), false);
+            return 0;
+        }
+        
+        long now = CustomstartinventoryMod.SCHEDULER.currentTick();
+        source.sendSuccess(() -> Component.literal("§a=== Вторжения: " + history.playerName() + " §7(последние " + 
+                                                   history.size() + " из " + history.total() + ") ==="), false);
+        for (int i = history.size() - 1; i >= 0; i--) {
+            String line = "§e" + history.itemKey(i) + " x" + history.count(i) + " §7слот " + history.slot(i) + 
+                          ", " + (now - history.tick(i)) + " тиков назад";
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+        return history.size();
+    }
+    
+    private int handleIntrusionsExport(CommandSourceStack source) {
+        Path dir = ServerInventoryManager.configDir();
+        if (dir == null) {
+            source.sendFailure(Component.literal("§cОшибка экспорта вторжений, подробности в логе сервера"));
+            return 0;
+        }
+        
+        StringBuilder csv = new StringBuilder("player,uuid,tick,slot,item,count\n");
+        int rows = 0;
+        for (Map.Entry<UUID, IntrusionHistory> entry : intrusionHistory.entrySet()) {
+            IntrusionHistory history = entry.getValue();
+            for (int i = 0; i < history.size(); i++) {
+                csv.append(history.playerName()).append(',').append(entry.getKey()).append(',')
+                   .append(history.tick(i)).append(',').append(history.slot(i)).append(',')
+                   .append(history.itemKey(i)).append(',').append(history.count(i)).append('\n');
+                rows++;
+            }
+        }
+        
+        try {
+            KitCatalogWriter.writeAtomically(dir.resolve(INTRUSIONS_EXPORT_FILE), csv.toString());
+        } catch (IOException e) {
+            System.out.println("[CSI] Ошибка экспорта вторжений: " + e.getMessage());
+            source.sendFailure(Component.literal("§cОшибка экспорта вторжений, подробности в логе сервера"));
+            return 0;
+        }
+        
+        int exported = rows;
+        System.out.println("[CSI] Вторжения экспортированы в " + INTRUSIONS_EXPORT_FILE + ": " + exported);
+        source.sendSuccess(() -> Component.literal("§aЭкспортировано записей: " + exported + " §7(config/customstartinventory/" + 
+                                                   INTRUSIONS_EXPORT_FILE + ")"), false);
+        return Math.max(exported, 1);
+    }
+
     private int handleKitList(CommandSourceStack source) {
-        List<ServerInventoryManager.StarterKit> kits = ServerInventoryManager.getAllKits();
+        List<KitEntry> kits = ServerInventoryManager.getKitEntries();
         
         if (kits.isEmpty()) {
             source.sendSuccess(() -> Component.literal("§eНет сохраненных наборов"), false);
@@ -1143,19 +1641,20 @@ public class CustomStartInventory {
         } else {
             source.sendSuccess(() -> Component.literal("§a=== Доступные наборы ==="), false);
             
-            for (ServerInventoryManager.StarterKit kit : kits) {
-                String autoGive = kit.giveOnFirstJoin ? "§a(авто)" : "§7(ручная)";
-                int totalItems = kit.items.size() + kit.armor.size() + kit.offhand.size();
-                source.sendSuccess(() -> Component.literal("§e" + kit.kitName + " §f- " + autoGive + " §7(" + totalItems + " предметов)"), false);
+            for (KitEntry kit : kits) {
+                String autoGive = kit.giveOnFirstJoin() ? "§a(авто)" : "§7(ручная)";
+                int totalItems = kit.itemCount();
+                source.sendSuccess(() -> Component.literal("§e" + kit.name() + " §f- " + autoGive + " §7(" + totalItems + " предметов)"), false);
             }
         }
         
         source.sendSuccess(() -> Component.literal("§a=== Команды ==="), false);
         source.sendSuccess(() -> Component.literal("§e/csi kit create <name>§7 - создать из инвентаря"), false);
-        source.sendSuccess(() -> Component.literal("§e/csi kit <name> [player]§7 - выдать набор"), false);
+        source.sendSuccess(() -> Component.literal("§e/csi kit <name> [players]§7 - выдать набор (поддерживает @a и селекторы)"), false);
         source.sendSuccess(() -> Component.literal("§e/csi kit remove <name>§7 - удалить набор"), false);
         source.sendSuccess(() -> Component.literal("§e/csi kit remove all§7 - удалить все наборы"), false);
         source.sendSuccess(() -> Component.literal("§e/csi kit reload§7 - перезагрузить конфиг"), false);
+        source.sendSuccess(() -> Component.literal("§e/csi kit export§7 / §eimport§7 - правка наборов через JSON"), false);
         
         return kits.size();
     }
@@ -1229,7 +1728,33 @@ public class CustomStartInventory {
         return 1;
     }
     
-    private boolean saveInventory(ServerPlayer player) {
+    private int handleKitExport(CommandSourceStack source) {
+        int exported = ServerInventoryManager.exportKits();
+        if (exported < 0) {
+            source.sendFailure(Component.literal("§cОшибка экспорта наборов, подробности в логе сервера"));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("§aЭкспортировано наборов: " + exported + " §7(config/customstartinventory/" +
+                                                   ServerInventoryManager.EXPORT_FILE + ")"), false);
+        return Math.max(exported, 1);
+    }
+    
+    private int handleKitImport(CommandSourceStack source) {
+        if (!MOD_ENABLED.get()) {
+            source.sendFailure(Component.literal("§cMod is disabled"));
+            return 0;
+        }
+        
+        int imported = ServerInventoryManager.importKits();
+        if (imported < 0) {
+            source.sendFailure(Component.literal("§cФайл " + ServerInventoryManager.EXPORT_FILE + " не найден или поврежден"));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("§aИмпортировано наборов: " + imported), false);
+        return Math.max(imported, 1);
+    }
+    
+    private CompletableFuture<Boolean> saveInventory(ServerPlayer player) {
         CompoundTag csiTag = new CompoundTag();
         Inventory inventory = player.getInventory();
         ListTag inventoryTag = new ListTag();
@@ -1277,6 +1802,9 @@ public class CustomStartInventory {
         }
         
         csiTag.put("Inventory", inventoryTag);
+        // Отпечаток для быстрой проверки совпадения во время мониторинга
+        csiTag.putLong("Fingerprint", InventoryFingerprint.of(inventory, player.registryAccess()));
+        csiTag.putInt("FingerprintVersion", InventoryFingerprint.VERSION);
 
         if (SAVE_ACCESSORIES.get()) {
             CompoundTag accessoriesTag = new CompoundTag();
@@ -1304,56 +1832,17 @@ public class CustomStartInventory {
         return saveToFile(player, csiTag);
     }
 
-    private boolean loadInventory(ServerPlayer player) {
-        CompoundTag csiTag = loadFromFile(player);
-        
-        if (!csiTag.contains("Inventory") && !csiTag.contains("Accessories")) {
+    private boolean loadInventory(ServerPlayer player, SavedInventory saved) {
+        if (saved == null) {
             return false;
         }
 
-        boolean inventoryLoaded = false;
-        
-        if (csiTag.contains("Inventory")) {
-            ListTag inventoryTag = csiTag.getList("Inventory", Tag.TAG_COMPOUND);
-            Inventory inventory = player.getInventory();
-            
-            for (int i = 0; i < inventoryTag.size(); ++i) {
-                CompoundTag slotTag = inventoryTag.getCompound(i);
-                int slot = slotTag.getByte("Slot") & 255;
-                int type = slotTag.getByte("Type") & 255;
-                
-                if (slotTag.contains("Item")) {
-                    CompoundTag itemTag = slotTag.getCompound("Item");
-                    ItemStack stack = loadItemStackSimple(player, itemTag);
-                    
-                    if (!stack.isEmpty()) {
-                        switch (type) {
-                            case 0:
-                                if (slot >= 0 && slot < inventory.items.size()) {
-                                    inventory.items.set(slot, stack);
-                                }
-                                break;
-                            case 1:
-                                if (slot >= 0 && slot < inventory.armor.size()) {
-                                    inventory.armor.set(slot, stack);
-                                }
-                                break;
-                            case 2:
-                                if (slot >= 0 && slot < inventory.offhand.size()) {
-                                    inventory.offhand.set(slot, stack);
-                                }
-                                break;
-                        }
-                    }
-                }
-            }
-            
-            player.inventoryMenu.slotsChanged(inventory);
-            inventoryLoaded = !inventoryTag.isEmpty();
-        }
+        // Предметы уже декодированы: остается разложить копии по слотам
+        saved.applyTo(player);
+        boolean inventoryLoaded = saved.hasItems();
 
-        if (SAVE_ACCESSORIES.get() && csiTag.contains("Accessories")) {
-            CompoundTag accessoriesTag = csiTag.getCompound("Accessories");
+        if (SAVE_ACCESSORIES.get() && saved.accessories() != null) {
+            CompoundTag accessoriesTag = saved.accessories();
             
             if (hasCurios && (ACCESSORIES_MODE.get() == AccessoryMode.CURIOS || 
                              ACCESSORIES_MODE.get() == AccessoryMode.AUTO || 
@@ -1394,16 +1883,6 @@ public class CustomStartInventory {
         }
     }
 
-    private ItemStack loadItemStackSimple(ServerPlayer player, CompoundTag tag) {
-        try {
-            if (tag.isEmpty()) return ItemStack.EMPTY;
-            Optional<ItemStack> optionalStack = ItemStack.parse(player.registryAccess(), tag);
-            return optionalStack.orElse(ItemStack.EMPTY);
-        } catch (Exception e) {
-            return ItemStack.EMPTY;
-        }
-    }
-    
     private void playSound(CommandSourceStack source, ServerPlayer player, net.minecraft.sounds.SoundEvent sound) {
         if (player != null && source.getLevel() != null) {
             source.getLevel().playSound(null, player.getX(), player.getY(), player.getZ(),
@@ -0,0 +1,80 @@
+package net.darkunity.customstartinventory;
+
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.world.item.Item;
+
+/**
+ * История вторжений игрока: кольцевой буфер фиксированного размера на примитивных массивах.
+ * Запись - тик планировщика, общий индекс слота, числовой id предмета в реестре и количество;
+ * при заполнении новые записи затирают самые старые, поэтому запись не создает объектов.
+ * Числовые id действительны только в текущем запуске сервера - при выгрузке они переводятся в строковые.
+ * Все методы вызываются только из серверного потока.
+ */
+public final class IntrusionHistory {
+    public static final int CAPACITY = 32;
+
+    private final String playerName;
+    private final long[] ticks = new long[CAPACITY];
+    private final byte[] slots = new byte[CAPACITY];
+    private final int[] items = new int[CAPACITY];
+    private final int[] counts = new int[CAPACITY];
+    // Индекс следующей записи и число записей в буфере
+    private int head;
+    private int size;
+    // Всего записей за все время (включая затертые)
+    private long total;
+
+    public IntrusionHistory(String playerName) {
+        this.playerName = playerName;
+    }
+
+    public void record(long tick, int slot, Item item, int count) {
+        ticks[head] = tick;
+        slots[head] = (byte) slot;
+        items[head] = BuiltInRegistries.ITEM.getId(item);
+        counts[head] = count;
+        head = (head + 1) % CAPACITY;
+        if (size < CAPACITY) {
+            size++;
+        }
+        total++;
+    }
+
+    public String playerName() {
+        return playerName;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    // Позиция i-й записи от самой старой
+    private int position(int i) {
+        return (head - size + i + CAPACITY) % CAPACITY;
+    }
+
+    public long tick(int i) {
+        return ticks[position(i)];
+    }
+
+    public int slot(int i) {
+        return slots[position(i)];
+    }
+
+    public int count(int i) {
+        return counts[position(i)];
+    }
+
+    public int itemId(int i) {
+        return items[position(i)];
+    }
+
+    // Строковый id предмета записи (для выгрузки)
+    public String itemKey(int i) {
+        return BuiltInRegistries.ITEM.getKey(BuiltInRegistries.ITEM.byId(itemId(i))).toString();
+    }
+}
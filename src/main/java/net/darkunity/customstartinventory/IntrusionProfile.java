@@ -0,0 +1,167 @@
+package net.darkunity.customstartinventory;
+
+import com.google.gson.Gson;
+import net.neoforged.fml.ModList;
+import net.neoforged.neoforgespi.language.IModInfo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Наблюдаемые задержки вторжений для текущей сборки модов.
+ * Вторжение - посторонние предметы, которые другой мод кладет в инвентарь после входа игрока.
+ * Для каждого окна мониторинга записывается задержка последнего вторжения от начала окна
+ * (0, если вторжений не было), а по наблюдениям ведутся экспоненциальные скользящие среднее
+ * и отклонение. По ним окно мониторинга сокращается до времени, в которое в этой сборке
+ * вторжения действительно приходят.
+ * Профиль хранится в intrusion-profile.json и сбрасывается при смене состава модов.
+ */
+public final class IntrusionProfile {
+    public static final String FILE_NAME = "intrusion-profile.json";
+    // Вес нового наблюдения
+    private static final double ALPHA = 0.1;
+    // Сколько наблюдений нужно, прежде чем доверять профилю
+    private static final int MIN_SAMPLES = 8;
+    // Запас по отклонению: горизонт = среднее + 3 отклонения
+    private static final double DEVIATION_MARGIN = 3.0;
+
+    // Сериализуемое состояние
+    private static final class State {
+        String modpack;
+        double mean;
+        double deviation;
+        int samples;
+        int maxDelay;
+    }
+
+    private final Path file;
+    private final String modpack;
+    private State state;
+    // Сбрасывается при постановке записи, восстанавливается потоком записи при ошибке
+    private volatile boolean dirty;
+
+    private IntrusionProfile(Path file, String modpack, State state) {
+        this.file = file;
+        this.modpack = modpack;
+        this.state = state;
+    }
+
+    /**
+     * Загружает профиль; при другой сборке модов или ошибке чтения начинает с пустого
+     */
+    public static IntrusionProfile load(Path directory, Gson gson) {
+        String modpack = modpackKey();
+        Path file = directory == null ? null : directory.resolve(FILE_NAME);
+        State state = null;
+
+        if (file != null && Files.exists(file)) {
+            try {
+                state = gson.fromJson(Files.readString(file, StandardCharsets.UTF_8), State.class);
+            } catch (Exception e) {
+                System.out.println("[CSI] Ошибка чтения " + FILE_NAME + ": " + e.getMessage());
+            }
+        }
+
+        if (state == null || !modpack.equals(state.modpack)) {
+            if (state != null) {
+                System.out.println("[CSI] Состав модов изменился, профиль вторжений собирается заново");
+            }
+            state = new State();
+            state.modpack = modpack;
+        }
+        return new IntrusionProfile(file, modpack, state);
+    }
+
+    // Ключ сборки: хэш отсортированного списка модов с версиями
+    private static String modpackKey() {
+        List<String> mods = new ArrayList<>();
+        for (IModInfo mod : ModList.get().getMods()) {
+            mods.add(mod.getModId() + "@" + mod.getVersion());
+        }
+        Collections.sort(mods);
+        return Integer.toHexString(String.join(",", mods).hashCode());
+    }
+
+    /**
+     * Учитывает окно мониторинга: задержка последнего вторжения в тиках, 0 - вторжений не было
+     */
+    public void record(int lastIntrusionDelay) {
+        if (state.samples == 0) {
+            state.mean = lastIntrusionDelay;
+            state.deviation = 0;
+        } else {
+            double diff = lastIntrusionDelay - state.mean;
+            state.mean += ALPHA * diff;
+            state.deviation += ALPHA * (Math.abs(diff) - state.deviation);
+        }
+        state.samples++;
+        state.maxDelay = Math.max(state.maxDelay, lastIntrusionDelay);
+        dirty = true;
+    }
+
+    public boolean isTrained() {
+        return state.samples >= MIN_SAMPLES;
+    }
+
+    /**
+     * Тик от начала окна, после которого вторжений в этой сборке обычно уже нет;
+     * пока наблюдений мало, возвращает {@code fallback}
+     */
+    public int horizon(int fallback) {
+        if (!isTrained()) {
+            return fallback;
+        }
+        return (int) Math.ceil(state.mean + DEVIATION_MARGIN * state.deviation);
+    }
+
+    public int samples() {
+        return state.samples;
+    }
+
+    public double mean() {
+        return state.mean;
+    }
+
+    public double deviation() {
+        return state.deviation;
+    }
+
+    public int maxDelay() {
+        return state.maxDelay;
+    }
+
+    /**
+     * Ставит снимок профиля в фоновую запись, если он изменился (вызывается из серверного тика)
+     */
+    public void saveInBackground(Gson gson) {
+        if (!dirty || file == null) {
+            return;
+        }
+        state.modpack = modpack;
+        String json = gson.toJson(state);
+        dirty = false;
+        ServerInventoryManager.writeFileInBackground(file, json, () -> dirty = true);
+    }
+
+    /**
+     * Записывает профиль, если он изменился, в вызывающем потоке (при остановке сервера)
+     */
+    public void save(Gson gson) {
+        if (!dirty || file == null) {
+            return;
+        }
+        try {
+            state.modpack = modpack;
+            String json = gson.toJson(state);
+            KitCatalogWriter.writeAtomically(file, json);
+            dirty = false;
+        } catch (IOException e) {
+            System.out.println("[CSI] Ошибка сохранения " + FILE_NAME + ": " + e.getMessage());
+        }
+    }
+}
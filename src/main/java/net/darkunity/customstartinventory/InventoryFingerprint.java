@@ -0,0 +1,118 @@
+package net.darkunity.customstartinventory;
+
+import net.minecraft.core.HolderLookup;
+import net.minecraft.core.component.DataComponentPatch;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.item.ItemStack;
+
+/**
+ * 64-битный отпечаток содержимого инвентаря.
+ * Отпечаток - XOR хэшей непустых слотов, а хэш слота зависит от его индекса, предмета,
+ * количества и компонентов, поэтому при изменении одного слота отпечаток обновляется за O(1):
+ * старый хэш слота убирается, новый добавляется.
+ * Хэш строится только из значений, которые не меняются между запусками (строковый id предмета
+ * и NBT-форма компонентов), поэтому отпечаток можно хранить в файле сохранения.
+ *
+ * Экземпляр класса - отпечаток живого инвентаря игрока с кэшем хэшей по слотам.
+ */
+public final class InventoryFingerprint {
+    // Версия алгоритма, хранится рядом с отпечатком; при смене отпечаток пересчитывается
+    public static final int VERSION = 1;
+
+    private final HolderLookup.Provider registries;
+    private final ItemStack[] seen = new ItemStack[SavedInventory.SIZE];
+    private final int[] seenCounts = new int[SavedInventory.SIZE];
+    private final long[] hashes = new long[SavedInventory.SIZE];
+    // Слоты, о которых сообщил слушатель: компоненты стака могли измениться без замены стака
+    private final boolean[] changed = new boolean[SavedInventory.SIZE];
+    private long value;
+
+    public InventoryFingerprint(HolderLookup.Provider registries) {
+        this.registries = registries;
+    }
+
+    /**
+     * Отпечаток всего инвентаря (используется при сохранении)
+     */
+    public static long of(Inventory inventory, HolderLookup.Provider registries) {
+        long result = 0;
+        for (int i = 0; i < SavedInventory.SIZE; i++) {
+            result ^= slotHash(i, inventory.getItem(i), registries);
+        }
+        return result;
+    }
+
+    /**
+     * Хэш одного слота; пустой слот дает 0
+     */
+    public static long slotHash(int index, ItemStack stack, HolderLookup.Provider registries) {
+        if (stack.isEmpty()) {
+            return 0;
+        }
+
+        long hash = mix(index + 1);
+        hash = mix(hash ^ BuiltInRegistries.ITEM.getKey(stack.getItem()).toString().hashCode());
+        hash = mix(hash ^ stack.getCount());
+
+        DataComponentPatch patch = stack.getComponentsPatch();
+        if (!patch.isEmpty()) {
+            // hashCode NBT определен через значения тегов и не зависит от запуска
+            int componentsHash = DataComponentPatch.CODEC
+                .encodeStart(registries.createSerializationContext(NbtOps.INSTANCE), patch)
+                .result()
+                .map(Object::hashCode)
+                .orElse(patch.size());
+            hash = mix(hash ^ componentsHash);
+        }
+        return hash;
+    }
+
+    // Финальное перемешивание SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Отмечает слот для пересчета при следующем {@link #update} (событие слушателя слотов)
+     */
+    public void markChanged(int index) {
+        if (index >= 0 && index < SavedInventory.SIZE) {
+            changed[index] = true;
+        }
+    }
+
+    /**
+     * Обновляет отпечаток по инвентарю: пересчитываются только слоты, в которых сменился стак
+     * или его количество, и слоты, отмеченные {@link #markChanged} - так учитываются
+     * изменения компонентов на месте (прочность, зачарования, имя, данные модов)
+     */
+    public long update(Inventory inventory) {
+        for (int i = 0; i < SavedInventory.SIZE; i++) {
+            ItemStack stack = inventory.getItem(i);
+            if (changed[i] || stack != seen[i] || stack.getCount() != seenCounts[i]) {
+                setSlot(i, stack);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Учитывает новое содержимое слота
+     */
+    public void setSlot(int index, ItemStack stack) {
+        long hash = slotHash(index, stack, registries);
+        value ^= hashes[index] ^ hash;
+        hashes[index] = hash;
+        seen[index] = stack;
+        seenCounts[index] = stack.getCount();
+        changed[index] = false;
+    }
+
+    public long value() {
+        return value;
+    }
+}
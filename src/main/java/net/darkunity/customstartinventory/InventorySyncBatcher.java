@@ -0,0 +1,149 @@
+package net.darkunity.customstartinventory;
+
+import net.minecraft.network.protocol.game.ClientboundContainerSetSlotPacket;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.inventory.InventoryMenu;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Отложенная синхронизация инвентаря с клиентом.
+ * Операции CSI (очистка, загрузка, выдача наборов) только отмечают измененные слоты,
+ * а в конце серверного тика каждому игроку один раз отправляются пакеты лишь для этих слотов
+ * вместо нескольких полных синхронизаций за тик. Синхронизация аксессуаров тоже
+ * выполняется не больше одного раза за тик.
+ * Индексы слотов - общие индексы {@link Inventory#getItem(int)}: 0-35 основной инвентарь, 36-39 броня, 40 оффхенд.
+ * Все методы вызываются только из серверного потока.
+ */
+public final class InventorySyncBatcher {
+    public static final int ARMOR_START = Inventory.INVENTORY_SIZE;
+    public static final int OFFHAND_INDEX = ARMOR_START + 4;
+
+    private static final Map<UUID, Pending> pending = new HashMap<>();
+
+    private static final class Pending {
+        final ServerPlayer player;
+        // Бит на каждый слот инвентаря (41 слот умещается в long)
+        long dirtySlots;
+        Runnable accessorySync;
+
+        Pending(ServerPlayer player) {
+            this.player = player;
+        }
+    }
+
+    private InventorySyncBatcher() {}
+
+    public static void markSlot(ServerPlayer player, int inventoryIndex) {
+        if (inventoryIndex >= 0 && inventoryIndex <= OFFHAND_INDEX) {
+            pendingFor(player).dirtySlots |= 1L << inventoryIndex;
+        }
+    }
+
+    public static void markMain(ServerPlayer player, int slot) {
+        if (slot >= 0 && slot < ARMOR_START) {
+            markSlot(player, slot);
+        }
+    }
+
+    public static void markArmor(ServerPlayer player, int slot) {
+        if (slot >= 0 && slot < 4) {
+            markSlot(player, ARMOR_START + slot);
+        }
+    }
+
+    public static void markOffhand(ServerPlayer player) {
+        markSlot(player, OFFHAND_INDEX);
+    }
+
+    /**
+     * Откладывает синхронизацию аксессуаров до конца тика; при нескольких вызовах выполняется последняя
+     */
+    public static void deferAccessorySync(ServerPlayer player, Runnable sync) {
+        pendingFor(player).accessorySync = sync;
+    }
+
+    private static Pending pendingFor(ServerPlayer player) {
+        Pending entry = pending.get(player.getUUID());
+        if (entry == null || entry.player != player) {
+            // Новая сущность игрока (например, после возрождения) - старые отметки не нужны
+            entry = new Pending(player);
+            pending.put(player.getUUID(), entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Отправка накопленных изменений; вызывается в конце серверного тика
+     */
+    public static void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        for (Pending entry : pending.values()) {
+            ServerPlayer player = entry.player;
+            if (player.isRemoved() || player.connection == null) {
+                continue;
+            }
+
+            try {
+                sendSlots(player, entry.dirtySlots);
+                if (entry.accessorySync != null) {
+                    entry.accessorySync.run();
+                }
+            } catch (Exception e) {
+                System.out.println("[CSI] Ошибка синхронизации инвентаря " + player.getName().getString() + ": " + e.getMessage());
+            }
+        }
+        pending.clear();
+    }
+
+    public static void clear() {
+        pending.clear();
+    }
+
+    private static void sendSlots(ServerPlayer player, long dirtySlots) {
+        if (dirtySlots == 0) {
+            return;
+        }
+
+        InventoryMenu menu = player.inventoryMenu;
+        Inventory inventory = player.getInventory();
+        long remaining = dirtySlots;
+        while (remaining != 0) {
+            int index = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+
+            int menuSlot = menuSlot(index);
+            ItemStack stack = inventory.getItem(index);
+            // Запоминаем отправленное состояние, чтобы broadcastChanges не повторил пакет
+            menu.setRemoteSlot(menuSlot, stack);
+            player.connection.send(new ClientboundContainerSetSlotPacket(menu.containerId, menu.incrementStateId(), menuSlot, stack.copy()));
+        }
+
+        // Открытый сторонний контейнер тоже показывает инвентарь игрока - отправляем ему разницу
+        if (player.containerMenu != menu) {
+            player.containerMenu.broadcastChanges();
+        }
+    }
+
+    // Общий индекс инвентаря -> номер слота в InventoryMenu
+    private static int menuSlot(int inventoryIndex) {
+        if (inventoryIndex < Inventory.getSelectionSize()) {
+            return InventoryMenu.USE_ROW_SLOT_START + inventoryIndex;
+        }
+        if (inventoryIndex < ARMOR_START) {
+            return inventoryIndex;
+        }
+        if (inventoryIndex < OFFHAND_INDEX) {
+            // Броня в меню идет от шлема к ботинкам
+            return InventoryMenu.ARMOR_SLOT_START + 3 - (inventoryIndex - ARMOR_START);
+        }
+        return InventoryMenu.SHIELD_SLOT;
+    }
+}
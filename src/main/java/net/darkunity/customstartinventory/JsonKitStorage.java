@@ -0,0 +1,372 @@
+package net.darkunity.customstartinventory;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import net.darkunity.customstartinventory.ServerInventoryManager.StarterKit;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Хранение всего каталога в одном файле starter-kits.json.
+ * Файл читается потоково: первый проход только индексирует имена, метаданные
+ * и байтовые смещения наборов, а тела разбираются по смещению при первом обращении.
+ * При записи неизмененные наборы копируются из старого файла байтами, без разбора.
+ */
+public final class JsonKitStorage implements KitStorage {
+    public static final String FILE_NAME = "starter-kits.json";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final Path file;
+    private final Gson gson;
+
+    // Положение набора в файле и контрольная сумма его текста
+    private record Slice(long start, long end, long crc) {}
+
+    // Результат индексации одного набора
+    private record IndexedKit(String name, boolean giveOnFirstJoin, int itemCount, Slice slice) {}
+
+    @FunctionalInterface
+    public interface KitConsumer {
+        void accept(StarterKit kit) throws IOException;
+    }
+
+    // Индекс текущей версии файла (защищен монитором this)
+    private Map<String, Slice> slices = Map.of();
+    private long fileStamp = -1;
+
+    public JsonKitStorage(Path directory, Gson gson) {
+        this.directory = directory;
+        this.file = directory.resolve(FILE_NAME);
+        this.gson = gson;
+    }
+
+    @Override
+    public Path directory() {
+        return directory;
+    }
+
+    @Override
+    public boolean isRelevant(Path fileName) {
+        return fileName.toString().equals(FILE_NAME);
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        Files.createDirectories(directory);
+
+        // Если файл не существует, создаем пустой каталог
+        if (!Files.exists(file)) {
+            KitCatalogWriter.writeAtomically(file, gson.toJson(new ArrayList<StarterKit>()));
+            System.out.println("[CSI] Создан пустой файл конфигурации " + FILE_NAME);
+        }
+    }
+
+    @Override
+    public KitRegistry load(KitRegistry previous) throws IOException {
+        return reload(previous, null);
+    }
+
+    @Override
+    public synchronized KitRegistry reload(KitRegistry base, Set<Path> changed) throws IOException {
+        if (!Files.exists(file)) {
+            return base.withEntries(List.of());
+        }
+
+        List<IndexedKit> indexed = index();
+        List<KitEntry> next = new ArrayList<>(indexed.size());
+        for (IndexedKit item : indexed) {
+            KitEntry existing = base.entry(item.name());
+            if (existing != null && existing.sameContentCrc(item.slice().crc())) {
+                // Текст набора не изменился
+                next.add(existing);
+            } else if (existing != null && existing.isLoaded()) {
+                // Набор уже использовался: разбираем и компилируем сейчас, вне серверного потока
+                StarterKit kit = parse(readSlice(item.slice()));
+                kit.kitName = item.name();
+                next.add(existing.kit().sameContent(kit) ? existing : KitEntry.of(kit, 0, item.slice().crc()));
+            } else {
+                String key = KitRegistry.key(item.name());
+                next.add(KitEntry.lazy(item.name(), item.giveOnFirstJoin(), item.itemCount(), 0, item.slice().crc(),
+                    () -> load(key)));
+            }
+        }
+        return base.withEntries(next);
+    }
+
+    @Override
+    public synchronized void persist(KitRegistry snapshot, Set<String> dirtyKeys) throws IOException {
+        if (Files.exists(file) && stampOf(file) != fileStamp) {
+            // Файл правили вручную после индексации: ленивые наборы берутся из новой версии
+            index();
+        }
+        Map<String, Slice> oldSlices = slices;
+        boolean oldValid = Files.exists(file);
+        Map<String, Slice> newSlices = new HashMap<>(Math.max(16, snapshot.size() * 2));
+
+        KitCatalogWriter.writeAtomically(file, raw -> {
+            CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(raw, BUFFER_SIZE));
+            try (FileChannel source = oldValid ? FileChannel.open(file, StandardOpenOption.READ) : null) {
+                out.write("[\n".getBytes(StandardCharsets.UTF_8));
+                boolean first = true;
+                for (KitEntry entry : snapshot.entries()) {
+                    String key = KitRegistry.key(entry.name());
+                    Slice old = oldSlices.get(key);
+
+                    byte[] body;
+                    boolean untouched = old != null && (!entry.isLoaded() || entry.sameContentCrc(old.crc())
+                        || (dirtyKeys != null && !dirtyKeys.contains(key)));
+                    if (source != null && untouched) {
+                        // Набор не менялся с последнего чтения или его не меняли команды - копируем байты файла как есть,
+                        // чтобы не затереть ручную правку, которую горячая перезагрузка еще не применила
+                        body = read(source, old);
+                    } else if (entry.isLoaded()) {
+                        body = gson.toJson(entry.kit()).getBytes(StandardCharsets.UTF_8);
+                    } else {
+                        // Ленивый набор, которого больше нет в файле
+                        continue;
+                    }
+
+                    if (!first) {
+                        out.write(",\n".getBytes(StandardCharsets.UTF_8));
+                    }
+                    first = false;
+
+                    long start = out.count();
+                    out.write(body);
+                    newSlices.putIfAbsent(key, new Slice(start, out.count(), crc(body, body.length)));
+                }
+                out.write("\n]\n".getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        });
+
+        slices = newSlices;
+        fileStamp = stampOf(file);
+    }
+
+    /**
+     * Потоковый обход всех наборов файла по одному, без построения общего списка
+     */
+    public static void forEachKit(Path file, Gson gson, KitConsumer consumer) throws IOException {
+        scan(file, (start, end, bytes, length) -> {
+            StarterKit kit = gson.fromJson(new String(bytes, 0, length, StandardCharsets.UTF_8), StarterKit.class);
+            if (kit != null) {
+                consumer.accept(kit);
+            }
+        });
+    }
+
+    // Первый проход: имена, метаданные и смещения всех наборов
+    private synchronized List<IndexedKit> index() throws IOException {
+        long stamp = stampOf(file);
+        List<IndexedKit> result = new ArrayList<>();
+        Map<String, Slice> index = new HashMap<>();
+
+        scan(file, (start, end, bytes, length) -> {
+            IndexedKit item = readMetadata(bytes, length, new Slice(start, end, crc(bytes, length)));
+            if (item == null) {
+                return;
+            }
+            result.add(item);
+            index.putIfAbsent(KitRegistry.key(item.name()), item.slice());
+        });
+
+        slices = index;
+        fileStamp = stamp;
+        return result;
+    }
+
+    // Ленивая загрузка тела набора по текущему индексу
+    private synchronized StarterKit load(String key) throws IOException {
+        if (stampOf(file) != fileStamp) {
+            // Файл изменили после индексации, а наблюдатель еще не успел - переиндексируем
+            index();
+        }
+        Slice slice = slices.get(key);
+        if (slice == null) {
+            throw new IOException("набор отсутствует в " + FILE_NAME);
+        }
+        return parse(readSlice(slice));
+    }
+
+    private StarterKit parse(byte[] bytes) throws IOException {
+        StarterKit kit = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), StarterKit.class);
+        if (kit == null) {
+            throw new IOException("пустое тело набора");
+        }
+        return kit;
+    }
+
+    private byte[] readSlice(Slice slice) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel, slice);
+        }
+    }
+
+    private static byte[] read(FileChannel channel, Slice slice) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (slice.end() - slice.start()));
+        long position = slice.start();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("файл наборов короче ожидаемого");
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    // Разбор только полей верхнего уровня; списки предметов пропускаются с подсчетом элементов
+    private static IndexedKit readMetadata(byte[] bytes, int length, Slice slice) throws IOException {
+        String name = null;
+        boolean giveOnFirstJoin = false;
+        int itemCount = 0;
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(bytes, 0, length), StandardCharsets.UTF_8))) {
+            reader.setLenient(true);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                JsonToken token = reader.peek();
+                if (field.equals("kitName") && token == JsonToken.STRING) {
+                    name = reader.nextString();
+                } else if (field.equals("giveOnFirstJoin") && token == JsonToken.BOOLEAN) {
+                    giveOnFirstJoin = reader.nextBoolean();
+                } else if ((field.equals("items") || field.equals("armor") || field.equals("offhand"))
+                           && token == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (reader.peek() != JsonToken.NULL) {
+                            itemCount++;
+                        }
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+        }
+
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        return new IndexedKit(name, giveOnFirstJoin, itemCount, slice);
+    }
+
+    @FunctionalInterface
+    private interface ObjectVisitor {
+        void visit(long start, long end, byte[] bytes, int length) throws IOException;
+    }
+
+    /**
+     * Побайтовый обход массива верхнего уровня: находит границы каждого объекта-набора.
+     * Структурные символы JSON однобайтовые, поэтому UTF-8 внутри строк не мешает разбору.
+     */
+    private static void scan(Path file, ObjectVisitor visitor) throws IOException {
+        ByteArrayOutputStream current = new ByteArrayOutputStream(1024);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int depth = 0;
+        boolean inString = false;
+        boolean escape = false;
+        boolean capturing = false;
+        long objectStart = 0;
+        long position = 0;
+
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                int chunkStart = 0;
+                for (int i = 0; i < read; i++, position++) {
+                    byte b = buffer[i];
+                    if (inString) {
+                        if (escape) {
+                            escape = false;
+                        } else if (b == '\\') {
+                            escape = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                        continue;
+                    }
+
+                    switch (b) {
+                        case '"' -> inString = true;
+                        case '[', '{' -> {
+                            depth++;
+                            if (b == '{' && depth == 2) {
+                                capturing = true;
+                                current.reset();
+                                chunkStart = i;
+                                objectStart = position;
+                            }
+                        }
+                        case ']', '}' -> {
+                            if (b == '}' && depth == 2 && capturing) {
+                                current.write(buffer, chunkStart, i + 1 - chunkStart);
+                                capturing = false;
+                                visitor.visit(objectStart, position + 1, current.toByteArray(), current.size());
+                            }
+                            depth--;
+                        }
+                        default -> {}
+                    }
+                }
+                if (capturing) {
+                    // Объект продолжается в следующем блоке
+                    current.write(buffer, chunkStart, read - chunkStart);
+                }
+            }
+        }
+    }
+
+    private static long crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    private static long stampOf(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Поток с подсчетом записанных байт (для смещений в новом файле)
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long count() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package net.darkunity.customstartinventory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Наблюдатель за папкой конфигурации наборов.
+ * События файловой системы собираются, пока редактор не перестанет писать файл (debounce),
+ * после чего в потоке наблюдателя вызывается обработчик перезагрузки
+ * с именами измененных файлов (null - были потеряны события, нужно проверить все).
+ */
+public final class KitCatalogWatcher {
+    // Пауза без новых событий, после которой правка считается завершенной
+    private static final long DEBOUNCE_MS = 500;
+
+    private final Path directory;
+    private final Predicate<Path> relevant;
+    private final Consumer<Set<Path>> onChange;
+    private WatchService watchService;
+    private Thread thread;
+
+    public KitCatalogWatcher(Path directory, Predicate<Path> relevant, Consumer<Set<Path>> onChange) {
+        this.directory = directory;
+        this.relevant = relevant;
+        this.onChange = onChange;
+    }
+
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+
+        thread = new Thread(this::run, "CSI-Kit-Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {}
+            watchService = null;
+        }
+        thread = null;
+    }
+
+    private void run() {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Set<Path> changed = new HashSet<>();
+                boolean overflow = collect(key, changed);
+
+                // Ждем, пока поток событий не затихнет
+                WatchKey next;
+                while ((next = service.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(next, changed);
+                }
+
+                if (overflow || !changed.isEmpty()) {
+                    try {
+                        onChange.accept(overflow ? null : changed);
+                    } catch (Exception e) {
+                        System.out.println("[CSI] Ошибка перезагрузки наборов: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Наблюдатель остановлен
+        }
+    }
+
+    // Собирает измененные файлы; возвращает true, если часть событий потеряна
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Object context = event.context();
+            if (context instanceof Path path && relevant.test(path)) {
+                changed.add(path);
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+}
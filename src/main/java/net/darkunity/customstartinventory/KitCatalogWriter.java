@@ -0,0 +1,175 @@
+package net.darkunity.customstartinventory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фоновая запись каталога наборов на диск.
+ * Изменения сразу применяются к реестру в памяти, а запись выполняется отдельным потоком:
+ * серия правок за короткий промежуток сливается в одну запись,
+ * файл пишется во временный и атомарно переносится на место старого.
+ * Хранилищу передаются только ключи наборов, измененных с прошлой записи.
+ */
+public final class KitCatalogWriter {
+    // Задержка, в течение которой серия изменений объединяется в одну запись
+    private static final long COALESCE_DELAY_MS = 250;
+
+    private final KitStorage storage;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Object writeLock = new Object();
+
+    // Ожидающий снимок и накопленные ключи измененных наборов (защищены stateLock)
+    private final Object stateLock = new Object();
+    private KitRegistry pending;
+    private final Set<String> dirtyKeys = new HashSet<>();
+    private boolean allDirty;
+
+    public KitCatalogWriter(KitStorage storage) {
+        this.storage = storage;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CSI-Kit-Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Ставит снимок каталога в очередь на запись; более новый снимок вытесняет еще не записанный.
+     * {@code changedKey} - ключ измененного набора или null, если изменился весь каталог.
+     */
+    public void submit(KitRegistry snapshot, String changedKey) {
+        synchronized (stateLock) {
+            pending = snapshot;
+            if (changedKey == null) {
+                allDirty = true;
+            } else {
+                dirtyKeys.add(changedKey);
+            }
+        }
+        if (executor.isShutdown()) {
+            // Сервер уже останавливается: пишем сразу
+            flush();
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            executor.schedule(this::drain, COALESCE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        scheduled.set(false);
+        writePending();
+    }
+
+    private void writePending() {
+        synchronized (writeLock) {
+            KitRegistry snapshot;
+            Set<String> keys;
+            synchronized (stateLock) {
+                snapshot = pending;
+                if (snapshot == null) {
+                    return;
+                }
+                keys = allDirty ? null : new HashSet<>(dirtyKeys);
+                pending = null;
+                dirtyKeys.clear();
+                allDirty = false;
+            }
+
+            try {
+                storage.persist(snapshot, keys);
+            } catch (Exception e) {
+                System.out.println("[CSI] Ошибка фоновой записи наборов: " + e.getMessage());
+                e.printStackTrace();
+                // Не теряем изменения: следующая запись или flush попробует снова
+                synchronized (stateLock) {
+                    if (pending == null) {
+                        pending = snapshot;
+                    }
+                    if (keys == null) {
+                        allDirty = true;
+                    } else {
+                        dirtyKeys.addAll(keys);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Синхронно записывает все ожидающие изменения в вызывающем потоке
+     */
+    public void flush() {
+        writePending();
+    }
+
+    /**
+     * Останавливает фоновый поток и дописывает ожидающие изменения
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Атомарная запись другого файла конфигурации тем же фоновым потоком (например, профиля вторжений).
+     * После остановки потока файл пишется сразу в вызывающем потоке.
+     */
+    public void writeFileLater(Path target, String content, Runnable onFailure) {
+        Runnable task = () -> {
+            try {
+                writeAtomically(target, content);
+            } catch (IOException e) {
+                System.out.println("[CSI] Ошибка записи " + target.getFileName() + ": " + e.getMessage());
+                onFailure.run();
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    @FunctionalInterface
+    public interface StreamWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Запись через временный файл с атомарной заменой: сбой посреди записи не портит старый файл
+     */
+    public static void writeAtomically(Path target, String content) throws IOException {
+        writeAtomically(target, out -> out.write(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static void writeAtomically(Path target, StreamWriter content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            content.write(out);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package net.darkunity.customstartinventory;
+
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Очередь массовой выдачи наборов.
+ * Команда только ставит получателей в очередь, а выдача идет в конце серверных тиков
+ * в пределах бюджета времени, поэтому раздача набора сотням игроков не вызывает просадку TPS.
+ * Все методы вызываются только из серверного потока.
+ */
+public final class KitDeliveryQueue {
+    // Отчет о ходе выдачи отправляется каждые 25%
+    private static final int PROGRESS_STEPS = 4;
+
+    private final ArrayDeque<Job> jobs = new ArrayDeque<>();
+
+    private static final class Job {
+        final CompiledKit plan;
+        final CommandSourceStack source;
+        // Игроки хранятся по UUID: к своей очереди игрок мог выйти с сервера
+        final ArrayDeque<UUID> recipients;
+        final int total;
+        int delivered;
+        int skipped;
+        int reportedStep;
+
+        Job(CompiledKit plan, CommandSourceStack source, Collection<ServerPlayer> players) {
+            this.plan = plan;
+            this.source = source;
+            this.recipients = new ArrayDeque<>(players.size());
+            for (ServerPlayer player : players) {
+                recipients.add(player.getUUID());
+            }
+            this.total = recipients.size();
+        }
+    }
+
+    /**
+     * Ставит выдачу в очередь; план набора фиксируется сейчас, поэтому
+     * перезагрузка каталога во время раздачи не меняет ее содержимое
+     */
+    public void submit(CompiledKit plan, CommandSourceStack source, Collection<ServerPlayer> players) {
+        jobs.add(new Job(plan, source, players));
+    }
+
+    public boolean isEmpty() {
+        return jobs.isEmpty();
+    }
+
+    // Число игроков, которые еще ждут выдачи
+    public int pending() {
+        int pending = 0;
+        for (Job job : jobs) {
+            pending += job.recipients.size();
+        }
+        return pending;
+    }
+
+    public void clear() {
+        jobs.clear();
+    }
+
+    /**
+     * Выдача в пределах бюджета; хотя бы один игрок обслуживается за тик, чтобы очередь не стояла
+     */
+    public void drain(MinecraftServer server, long budgetNanos) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + budgetNanos;
+        do {
+            Job job = jobs.peek();
+            UUID uuid = job.recipients.poll();
+            if (uuid != null) {
+                ServerPlayer player = server.getPlayerList().getPlayer(uuid);
+                if (player != null && ServerInventoryManager.deliver(player, job.plan)) {
+                    job.delivered++;
+                } else {
+                    job.skipped++;
+                }
+                reportProgress(job);
+            }
+
+            if (job.recipients.isEmpty()) {
+                jobs.poll();
+                complete(job);
+            }
+        } while (!jobs.isEmpty() && System.nanoTime() < deadline);
+    }
+
+    private void reportProgress(Job job) {
+        int done = job.delivered + job.skipped;
+        int step = done * PROGRESS_STEPS / job.total;
+        if (step <= job.reportedStep || done == job.total) {
+            return;
+        }
+        job.reportedStep = step;
+        job.source.sendSuccess(() -> Component.literal("§7[CSI] Выдача набора '" + job.plan.kit().kitName + "': " +
+                                                       done + "/" + job.total), false);
+    }
+
+    private void complete(Job job) {
+        String kitName = job.plan.kit().kitName;
+        System.out.println("[CSI] Массовая выдача набора '" + kitName + "' завершена: выдано " + job.delivered +
+                         ", пропущено " + job.skipped);
+        job.source.sendSuccess(() -> Component.literal("§a[CSI] Набор '" + kitName + "' выдан " + job.delivered +
+            " игрокам" + (job.skipped > 0 ? " §7(пропущено: " + job.skipped + ")" : "")), false);
+    }
+}
@@ -0,0 +1,132 @@
+package net.darkunity.customstartinventory;
+
+import net.darkunity.customstartinventory.ServerInventoryManager.StarterKit;
+
+import java.io.IOException;
+
+/**
+ * Запись каталога наборов.
+ * Метаданные (имя, автоматическая выдача, число предметов) доступны всегда,
+ * а тело набора может загружаться лениво при первом обращении и затем кэшируется
+ * вместе со скомпилированным планом выдачи.
+ *
+ * Версия источника хранится в двух независимых полях, 0 - неизвестна:
+ * fileTime - время изменения файла набора (ставит {@link ShardedKitStorage}),
+ * contentCrc - CRC32 текста набора в файле (ставит {@link JsonKitStorage}).
+ * Наборы из команд и из {@link BinaryKitStorage} версии не имеют. Неизвестная версия
+ * ни с чем не совпадает, поэтому после смены способа хранения набор считается измененным.
+ */
+public final class KitEntry {
+    @FunctionalInterface
+    public interface Loader {
+        StarterKit load() throws IOException;
+    }
+
+    private final String name;
+    private final boolean giveOnFirstJoin;
+    private final int itemCount;
+    private final long fileTime;
+    private final long contentCrc;
+    private final Loader loader;
+    private volatile CompiledKit compiled;
+    private volatile boolean failed;
+
+    private KitEntry(String name, boolean giveOnFirstJoin, int itemCount, long fileTime, long contentCrc,
+                     Loader loader, CompiledKit compiled) {
+        this.name = name;
+        this.giveOnFirstJoin = giveOnFirstJoin;
+        this.itemCount = itemCount;
+        this.fileTime = fileTime;
+        this.contentCrc = contentCrc;
+        this.loader = loader;
+        this.compiled = compiled;
+    }
+
+    /**
+     * Запись с уже загруженным телом без версии источника (команды, двоичный каталог)
+     */
+    public static KitEntry of(StarterKit kit) {
+        return of(kit, 0, 0);
+    }
+
+    /**
+     * Запись с уже загруженным телом: набор компилируется сразу
+     */
+    public static KitEntry of(StarterKit kit, long fileTime, long contentCrc) {
+        StarterKit frozen = kit.freeze();
+        return new KitEntry(frozen.kitName, frozen.giveOnFirstJoin, itemCount(frozen), fileTime, contentCrc,
+                            null, CompiledKit.compile(frozen));
+    }
+
+    /**
+     * Запись с ленивой загрузкой тела
+     */
+    public static KitEntry lazy(String name, boolean giveOnFirstJoin, int itemCount, long fileTime, long contentCrc,
+                                Loader loader) {
+        return new KitEntry(name, giveOnFirstJoin, itemCount, fileTime, contentCrc, loader, null);
+    }
+
+    public static int itemCount(StarterKit kit) {
+        return kit.items.size() + kit.armor.size() + kit.offhand.size();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public boolean giveOnFirstJoin() {
+        return giveOnFirstJoin;
+    }
+
+    public int itemCount() {
+        return itemCount;
+    }
+
+    // Файл набора не менялся с момента чтения (по времени изменения)
+    public boolean sameFileTime(long fileTime) {
+        return this.fileTime != 0 && this.fileTime == fileTime;
+    }
+
+    // Текст набора в файле совпадает с прочитанным (по CRC32)
+    public boolean sameContentCrc(long contentCrc) {
+        return this.contentCrc != 0 && this.contentCrc == contentCrc;
+    }
+
+    public boolean isLoaded() {
+        return compiled != null;
+    }
+
+    /**
+     * Скомпилированный план; при первом обращении загружает тело набора.
+     * Возвращает null, если тело не удалось загрузить.
+     */
+    public CompiledKit compiled() {
+        CompiledKit result = compiled;
+        if (result != null || loader == null || failed) {
+            return result;
+        }
+
+        synchronized (this) {
+            if (compiled == null && !failed) {
+                try {
+                    StarterKit kit = loader.load();
+                    if (kit == null) {
+                        throw new IOException("пустое тело набора");
+                    }
+                    // Имя из индекса главнее имени внутри файла
+                    kit.kitName = name;
+                    compiled = CompiledKit.compile(kit.freeze());
+                } catch (Exception e) {
+                    failed = true;
+                    System.out.println("[CSI] Не удалось загрузить набор '" + name + "': " + e.getMessage());
+                }
+            }
+            return compiled;
+        }
+    }
+
+    public StarterKit kit() {
+        CompiledKit result = compiled();
+        return result == null ? null : result.kit();
+    }
+}
@@ -0,0 +1,197 @@
+package net.darkunity.customstartinventory;
+
+import net.darkunity.customstartinventory.ServerInventoryManager.StarterKit;
+
+import java.util.*;
+
+/**
+ * Неизменяемый снимок каталога наборов в памяти.
+ * Индекс по имени не зависит от регистра, поиск выполняется за O(1).
+ * Тела наборов хранятся в {@link KitEntry} и могут подгружаться лениво,
+ * каждый набор компилируется в {@link CompiledKit} один раз.
+ * Любое изменение каталога создает новый снимок, поэтому вызывающий код
+ * никогда не видит частично обновленное состояние.
+ */
+public final class KitRegistry {
+    public static final KitRegistry EMPTY = new KitRegistry(List.of());
+
+    private final List<KitEntry> entries;
+    private final Map<String, KitEntry> byName;
+    private final KitEntry defaultEntry;
+
+    private KitRegistry(Collection<KitEntry> source) {
+        List<KitEntry> ordered = new ArrayList<>(source.size());
+        Map<String, KitEntry> index = new HashMap<>(Math.max(16, source.size() * 2));
+        KitEntry firstJoinEntry = null;
+
+        for (KitEntry entry : source) {
+            if (entry == null || entry.name() == null || entry.name().isEmpty()) {
+                continue;
+            }
+
+            String key = key(entry.name());
+            if (index.containsKey(key)) {
+                System.out.println("[CSI] Пропущен дубликат набора: " + entry.name());
+                continue;
+            }
+
+            index.put(key, entry);
+            ordered.add(entry);
+
+            // Первый набор с флагом автоматической выдачи становится стандартным
+            if (firstJoinEntry == null && entry.giveOnFirstJoin()) {
+                firstJoinEntry = entry;
+            }
+        }
+
+        this.entries = Collections.unmodifiableList(ordered);
+        this.byName = Collections.unmodifiableMap(index);
+        this.defaultEntry = firstJoinEntry;
+    }
+
+    /**
+     * Снимок из уже загруженных наборов (все наборы компилируются сразу)
+     */
+    public static KitRegistry fromKits(Collection<StarterKit> kits) {
+        return EMPTY.reconcile(kits);
+    }
+
+    /**
+     * Снимок из готовых записей (тела могут быть ленивыми)
+     */
+    public static KitRegistry fromEntries(Collection<KitEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return EMPTY;
+        }
+        return new KitRegistry(entries);
+    }
+
+    // Ключ индекса: имя набора без учета регистра
+    public static String key(String kitName) {
+        return kitName.toLowerCase(Locale.ROOT);
+    }
+
+    public KitEntry entry(String kitName) {
+        if (kitName == null) {
+            return null;
+        }
+        return byName.get(key(kitName));
+    }
+
+    // Набор по имени; ленивое тело загружается при первом обращении
+    public StarterKit get(String kitName) {
+        KitEntry entry = entry(kitName);
+        return entry == null ? null : entry.kit();
+    }
+
+    // Скомпилированный план выдачи набора
+    public CompiledKit compiled(String kitName) {
+        KitEntry entry = entry(kitName);
+        return entry == null ? null : entry.compiled();
+    }
+
+    // Проверка наличия без загрузки тела
+    public boolean contains(String kitName) {
+        return entry(kitName) != null;
+    }
+
+    // Неизменяемый список записей в порядке каталога (без загрузки тел)
+    public List<KitEntry> entries() {
+        return entries;
+    }
+
+    /**
+     * Все наборы с телами; ленивые записи при этом загружаются.
+     * Наборы, которые не удалось загрузить, пропускаются.
+     */
+    public List<StarterKit> all() {
+        List<StarterKit> kits = new ArrayList<>(entries.size());
+        for (KitEntry entry : entries) {
+            StarterKit kit = entry.kit();
+            if (kit != null) {
+                kits.add(kit);
+            }
+        }
+        return Collections.unmodifiableList(kits);
+    }
+
+    public StarterKit defaultKit() {
+        return defaultEntry == null ? null : defaultEntry.kit();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Снимок для нового содержимого каталога: наборы, содержимое которых не изменилось,
+     * переносятся вместе с уже скомпилированными планами, пересобираются только измененные.
+     * Если ничего не изменилось, возвращается этот же снимок.
+     */
+    public KitRegistry reconcile(Collection<StarterKit> parsed) {
+        if (parsed == null) {
+            parsed = List.of();
+        }
+
+        List<KitEntry> next = new ArrayList<>(parsed.size());
+        for (StarterKit kit : parsed) {
+            if (kit == null || kit.kitName == null || kit.kitName.isEmpty()) {
+                continue;
+            }
+
+            KitEntry existing = entry(kit.kitName);
+            if (existing != null && existing.isLoaded() && existing.kit().sameContent(kit)) {
+                next.add(existing);
+            } else {
+                next.add(KitEntry.of(kit));
+            }
+        }
+        return withEntries(next);
+    }
+
+    /**
+     * Снимок с новым списком записей; если записи и их порядок не изменились, возвращается этот же снимок
+     */
+    public KitRegistry withEntries(List<KitEntry> next) {
+        if (next.equals(entries)) {
+            return this;
+        }
+        return fromEntries(next);
+    }
+
+    /**
+     * Новый снимок с добавленным набором (существующий набор с тем же именем заменяется)
+     */
+    public KitRegistry with(StarterKit kit) {
+        List<KitEntry> next = new ArrayList<>(entries.size() + 1);
+        String key = key(kit.kitName);
+        for (KitEntry existing : entries) {
+            if (!key(existing.name()).equals(key)) {
+                next.add(existing);
+            }
+        }
+        next.add(KitEntry.of(kit));
+        return new KitRegistry(next);
+    }
+
+    /**
+     * Новый снимок без указанного набора
+     */
+    public KitRegistry without(String kitName) {
+        if (!contains(kitName)) {
+            return this;
+        }
+        String key = key(kitName);
+        List<KitEntry> next = new ArrayList<>(entries.size());
+        for (KitEntry existing : entries) {
+            if (!key(existing.name()).equals(key)) {
+                next.add(existing);
+            }
+        }
+        return fromEntries(next);
+    }
+}
@@ -0,0 +1,44 @@
+package net.darkunity.customstartinventory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Способ хранения каталога наборов на диске.
+ * Загрузка и перезагрузка строят снимок {@link KitRegistry}, запись выполняется
+ * фоновым потоком {@link KitCatalogWriter} и получает только имена измененных наборов.
+ */
+public interface KitStorage {
+    /**
+     * Папка, за которой следит горячая перезагрузка
+     */
+    Path directory();
+
+    /**
+     * Относится ли файл из папки наблюдения к этому хранилищу
+     */
+    boolean isRelevant(Path fileName);
+
+    /**
+     * Подготовка папок, создание пустого каталога и импорт старых форматов
+     */
+    void prepare() throws IOException;
+
+    /**
+     * Загрузка каталога; тела наборов могут остаться ленивыми
+     */
+    KitRegistry load(KitRegistry previous) throws IOException;
+
+    /**
+     * Перезагрузка после изменения файлов (вызывается вне серверного потока).
+     * {@code changed} - имена измененных файлов или null, если нужно проверить все.
+     * Если ничего не изменилось, возвращается {@code base}.
+     */
+    KitRegistry reload(KitRegistry base, Set<Path> changed) throws IOException;
+
+    /**
+     * Запись снимка. {@code dirtyKeys} - ключи измененных наборов или null, если изменилось все.
+     */
+    void persist(KitRegistry snapshot, Set<String> dirtyKeys) throws IOException;
+}
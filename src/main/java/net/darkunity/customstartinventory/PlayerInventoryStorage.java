@@ -0,0 +1,535 @@
+package net.darkunity.customstartinventory;
+
+import net.darkunity.customstartinventory.CustomStartInventory.StorageCompression;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Глобальное хранилище инвентарей (папка csi_storage, файл UUID.dat на игрока).
+ * Файлы читаются и пишутся только фоновыми потоками; результаты возвращаются в серверный поток
+ * через переданный исполнитель, поэтому обращения к диску никогда не выполняются внутри тика.
+ * Потоков фиксированное число, а операции одного игрока всегда идут через один и тот же поток,
+ * поэтому запись, чтение и удаление файла игрока не обгоняют друг друга.
+ * Последнее известное содержимое файла хранится в памяти, пока игрок на сервере: повторные чтения
+ * не обращаются к диску. {@link #release} убирает запись из памяти (выход игрока, выдача инвентаря);
+ * еще не записанное содержимое остается в памяти до своей записи.
+ * Запись отложенная: сохранение сразу действует в памяти и отмечается как грязное, а на диск
+ * грязные записи сбрасываются по таймеру. Несколько сохранений игрока между сбросами
+ * дают одну запись файла с последним содержимым; {@link #shutdown()} при остановке сервера
+ * сбрасывает все грязные записи и дожидается их завершения.
+ *
+ * Файл пишется во временный, сбрасывается на диск (fsync) и атомарно переносится на место;
+ * прежние версии сдвигаются в поколения UUID.dat.1 ... UUID.dat.N. При чтении проверяется CRC32,
+ * и если файл поврежден, берется самое новое целое поколение.
+ * Какие игроки вообще имеют файл, знает {@link SavedPlayerIndex}: после его построения
+ * игроки без сохранения определяются без обращения к диску.
+ * Формат: "CSIP", версия (байт), кодек (байт), NBT в кодеке, CRC32 (int) всего предшествующего содержимого.
+ * Кодек - номер значения {@link StorageCompression}: NONE - NBT как есть, GZIP - {@link NbtIo#writeCompressed},
+ * DEFLATE - Deflate с самым быстрым уровнем сжатия.
+ * Файлы старых форматов (чистый NBT без заголовка, версия 1 без кодека), файлы в другом кодеке
+ * и восстановленные из прежнего поколения читаются как есть и переписываются при ближайшем сбросе.
+ */
+public final class PlayerInventoryStorage {
+    private static final int IO_THREADS = 2;
+    // Метка "файла нет" в кэше
+    private static final CompoundTag ABSENT = new CompoundTag();
+    private static final byte[] MAGIC = {'C', 'S', 'I', 'P'};
+    private static final int VERSION = 2;
+    // Версия 1: без байта кодека, NBT без сжатия
+    private static final int VERSION_UNCOMPRESSED = 1;
+
+    private final Path directory;
+    // Сколько прежних версий файла хранить
+    private final int backups;
+    private final StorageCompression compression;
+    private final Executor serverExecutor;
+    private final ExecutorService[] workers = new ExecutorService[IO_THREADS];
+    // Последнее известное содержимое файлов по UUID (ABSENT - файла нет)
+    private final Map<UUID, CompoundTag> known = new ConcurrentHashMap<>();
+    private final SavedPlayerIndex index = new SavedPlayerIndex();
+    // Грязные записи, ждущие сброса на диск
+    private final Map<UUID, PendingWrite> dirty = new ConcurrentHashMap<>();
+    // Игроки, отпущенные из памяти до записи своего содержимого - убираются после записи
+    private final Set<UUID> released = ConcurrentHashMap.newKeySet();
+    // Идущие чтения по UUID
+    private final Map<UUID, CompletableFuture<CompoundTag>> inflight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    // Прочитанный файл; stale - файл нужно переписать в текущем формате
+    private record Loaded(CompoundTag data, boolean stale) {}
+
+    // Последнее содержимое игрока и результат, общий для всех слитых в него сохранений
+    private static final class PendingWrite {
+        final CompoundTag data;
+        final CompletableFuture<Boolean> done;
+
+        PendingWrite(CompoundTag data, CompletableFuture<Boolean> done) {
+            this.data = data;
+            this.done = done;
+        }
+    }
+
+    public PlayerInventoryStorage(Path directory, Executor serverExecutor, int flushIntervalSeconds, int backups,
+                                  StorageCompression compression) {
+        this.directory = directory;
+        this.backups = backups;
+        this.compression = compression;
+        this.serverExecutor = serverExecutor;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CSI-Storage-Flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+        for (int i = 0; i < IO_THREADS; i++) {
+            int index = i;
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "CSI-Storage-IO-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        index.scan(directory);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    private Path file(UUID playerId) {
+        return directory.resolve(playerId.toString() + ".dat");
+    }
+
+    // Поколение файла: 0 - текущий файл, 1..backups - прежние версии от новой к старой
+    private Path generation(UUID playerId, int index) {
+        Path current = file(playerId);
+        return index == 0 ? current : current.resolveSibling(current.getFileName() + "." + index);
+    }
+
+    // Поток игрока: все операции одного UUID выполняются по порядку
+    private ExecutorService worker(UUID playerId) {
+        return workers[Math.floorMod(playerId.hashCode(), IO_THREADS)];
+    }
+
+    // Операция в потоке игрока с результатом в серверном потоке
+    private <T> CompletableFuture<T> submit(UUID playerId, Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(operation, worker(playerId))
+            .thenApplyAsync(result -> result, serverExecutor);
+    }
+
+    /**
+     * Сохранение игрока из памяти (копия); null, если файла нет или он еще не читался - см. {@link #isKnown}
+     */
+    public CompoundTag cached(UUID playerId) {
+        CompoundTag data = known.get(playerId);
+        return data == null || data == ABSENT ? null : data.copy();
+    }
+
+    // Известно ли, есть ли у игрока файл, без обращения к диску
+    public boolean isKnown(UUID playerId) {
+        return known.containsKey(playerId) || index.isAbsent(playerId);
+    }
+
+    /**
+     * Убирает содержимое игрока из памяти; еще не записанное - после его записи.
+     * Отсутствие сохранения после этого по-прежнему известно из индекса.
+     */
+    public void release(UUID playerId) {
+        released.add(playerId);
+        evictIfClean(playerId);
+    }
+
+    private void evictIfClean(UUID playerId) {
+        known.computeIfPresent(playerId, (id, data) -> dirty.containsKey(id) ? data : null);
+        if (!known.containsKey(playerId)) {
+            released.remove(playerId);
+        }
+    }
+
+    // Игроков в памяти (для статистики)
+    public int cachedCount() {
+        return known.size();
+    }
+
+    // Игроков с сохранением по индексу; -1, пока индекс строится
+    public int indexedCount() {
+        return index.isReady() ? index.size() : -1;
+    }
+
+    /**
+     * Читает сохранение игрока; null, если файла нет или он не читается.
+     * Результат - копия, которую можно менять.
+     */
+    public CompletableFuture<CompoundTag> load(UUID playerId) {
+        if (isKnown(playerId)) {
+            return CompletableFuture.completedFuture(cached(playerId));
+        }
+        return fetch(playerId).thenApplyAsync(data -> data, serverExecutor);
+    }
+
+    /**
+     * Сохранение, если оно уже известно, без ожидания; иначе запускает чтение (или присоединяется
+     * к идущему) и возвращает null. После возврата {@link #isKnown} показывает, известен ли результат.
+     */
+    public CompoundTag loadIfReady(UUID playerId) {
+        if (!isKnown(playerId)) {
+            fetch(playerId);
+        }
+        return isKnown(playerId) ? cached(playerId) : null;
+    }
+
+    /**
+     * Как {@link #load}, но результат остается в потоке хранилища - для подготовки данных,
+     * которую серверный поток заберет сам (очередь восстановления)
+     */
+    public CompletableFuture<CompoundTag> fetch(UUID playerId) {
+        if (isKnown(playerId)) {
+            return CompletableFuture.completedFuture(cached(playerId));
+        }
+        // Одно чтение на игрока: повторные запросы присоединяются к идущему
+        CompletableFuture<CompoundTag> reading = new CompletableFuture<>();
+        CompletableFuture<CompoundTag> existing = inflight.putIfAbsent(playerId, reading);
+        if (existing == null) {
+            worker(playerId).execute(() -> {
+                CompoundTag result;
+                try {
+                    result = readIntoCache(playerId);
+                } catch (Throwable e) {
+                    inflight.remove(playerId, reading);
+                    reading.completeExceptionally(e);
+                    return;
+                }
+                // Результат уже в памяти (или известен индексу) - следующие запросы чтение не запустят
+                inflight.remove(playerId, reading);
+                reading.complete(result);
+            });
+            existing = reading;
+        }
+        // Общий результат не отдаем наружу - каждому своя копия
+        return existing.thenApply(data -> data != null ? data.copy() : null);
+    }
+
+    // Читает файл и кладет результат в память; возвращает текущее содержимое без копирования
+    private CompoundTag readIntoCache(UUID playerId) {
+        Loaded loaded = read(playerId);
+        CompoundTag data = loaded != null ? loaded.data() : null;
+        if (data == null && index.isReady()) {
+            // Отсутствие сохранения известно индексу - память не занимаем
+            CompoundTag current = known.get(playerId);
+            return current == null || current == ABSENT ? null : current;
+        }
+        // Запись, поставленная во время чтения, новее прочитанного файла
+        CompoundTag current = known.computeIfAbsent(playerId, id -> data == null ? ABSENT : data);
+        if (loaded != null && loaded.stale() && current == data) {
+            // Переводим файл в текущий формат при ближайшем сбросе
+            dirty.putIfAbsent(playerId, new PendingWrite(data, new CompletableFuture<>()));
+        }
+        return current == ABSENT ? null : current;
+    }
+
+    // Самое новое целое поколение; null, если ни одного нет
+    private Loaded read(UUID playerId) {
+        for (int i = 0; i <= backups; i++) {
+            Path path = generation(playerId, i);
+            try {
+                if (!Files.exists(path) || Files.size(path) == 0) {
+                    continue;
+                }
+                byte[] bytes = Files.readAllBytes(path);
+                CompoundTag data = decode(bytes);
+                if (i > 0) {
+                    System.out.println("[CSI] Сохранение " + playerId + " повреждено, восстановлено из " + path.getFileName());
+                }
+                return new Loaded(data, i > 0 || codecOf(bytes) != compression);
+            } catch (Exception e) {
+                System.out.println("[CSI] Ошибка чтения " + path.getFileName() + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    // Кодек файла; null - старый формат, который нужно переписать
+    private static StorageCompression codecOf(byte[] data) {
+        if (data.length < MAGIC.length + 2 || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)
+            || data[MAGIC.length] != VERSION) {
+            return null;
+        }
+        StorageCompression[] codecs = StorageCompression.values();
+        int codec = data[MAGIC.length + 1] & 0xFF;
+        return codec < codecs.length ? codecs[codec] : null;
+    }
+
+    static byte[] encode(CompoundTag data, StorageCompression compression) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(compression.ordinal());
+        switch (compression) {
+            case NONE -> NbtIo.write(data, out);
+            case GZIP -> {
+                // writeCompressed закрывает переданный поток, поэтому сжимаем в отдельный буфер
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                NbtIo.writeCompressed(data, compressed);
+                out.write(compressed.toByteArray());
+            }
+            case DEFLATE -> {
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater);
+                    NbtIo.write(data, new DataOutputStream(deflated));
+                    deflated.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static CompoundTag decode(byte[] data) throws IOException {
+        if (data.length < MAGIC.length || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+            // Старый формат без заголовка
+            return NbtIo.read(new DataInputStream(new ByteArrayInputStream(data)));
+        }
+        if (data.length < MAGIC.length + 1 + 4) {
+            throw new IOException("файл слишком короткий");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        int stored = ((data[data.length - 4] & 0xFF) << 24) | ((data[data.length - 3] & 0xFF) << 16)
+                   | ((data[data.length - 2] & 0xFF) << 8) | (data[data.length - 1] & 0xFF);
+        if ((int) crc.getValue() != stored) {
+            throw new IOException("контрольная сумма не совпадает");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, MAGIC.length, data.length - MAGIC.length - 4));
+        int version = in.readUnsignedByte();
+        if (version == VERSION_UNCOMPRESSED) {
+            return NbtIo.read(in);
+        }
+        if (version != VERSION) {
+            throw new IOException("неподдерживаемая версия: " + version);
+        }
+
+        StorageCompression[] codecs = StorageCompression.values();
+        int codec = in.readUnsignedByte();
+        if (codec >= codecs.length) {
+            throw new IOException("неизвестный кодек: " + codec);
+        }
+        return switch (codecs[codec]) {
+            case NONE -> NbtIo.read(in);
+            case GZIP -> NbtIo.readCompressed(in, NbtAccounter.unlimitedHeap());
+            case DEFLATE -> NbtIo.read(new DataInputStream(new InflaterInputStream(in)));
+        };
+    }
+
+    /**
+     * Пишет файл игрока: временный файл с fsync, сдвиг поколений (текущий файл - жесткая ссылка или копия
+     * в первое поколение), затем одна атомарная замена текущего файла временным.
+     * Сбой на любом шаге оставляет на месте целый текущий файл.
+     */
+    private void writeFile(UUID playerId, CompoundTag data) throws IOException {
+        byte[] bytes = encode(data, compression);
+        Files.createDirectories(directory);
+        Path target = file(playerId);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        if (backups > 0 && Files.exists(target)) {
+            for (int i = backups; i > 1; i--) {
+                Path older = generation(playerId, i - 1);
+                if (Files.exists(older)) {
+                    move(older, generation(playerId, i));
+                }
+            }
+            // Текущий файл не переносится, а связывается с первым поколением: UUID.dat есть на диске все время
+            Path first = generation(playerId, 1);
+            Files.deleteIfExists(first);
+            try {
+                Files.createLink(first, target);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(target, first, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        move(temp, target);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Сохраняет данные игрока: сразу в память, на диск - при ближайшем сбросе.
+     * Содержимое копируется сразу, поэтому тег можно дальше менять.
+     * Результат (в серверном потоке) - удалась ли запись, в которую попало это сохранение.
+     */
+    public CompletableFuture<Boolean> save(UUID playerId, CompoundTag data) {
+        CompoundTag copy = data.copy();
+        index.add(playerId);
+        // Сначала грязная запись, потом память: release не уберет содержимое, которое еще не записано
+        PendingWrite pending = dirty.compute(playerId, (id, previous) -> {
+            if (previous == null) {
+                return new PendingWrite(copy, new CompletableFuture<>());
+            }
+            // Прежнее содержимое еще не записано - его заменяет новое
+            coalesced.incrementAndGet();
+            return new PendingWrite(copy, previous.done);
+        });
+        known.put(playerId, copy);
+        return pending.done.thenApplyAsync(result -> result, serverExecutor);
+    }
+
+    /**
+     * Ставит все грязные записи в потоки хранилища (по таймеру и при остановке)
+     */
+    public void flush() {
+        for (UUID playerId : dirty.keySet()) {
+            // Снятие и постановка в поток вместе: чтение после release встанет в очередь за записью
+            dirty.computeIfPresent(playerId, (id, pending) -> {
+                worker(id).execute(() -> write(id, pending));
+                return null;
+            });
+        }
+    }
+
+    private void write(UUID playerId, PendingWrite pending) {
+        try {
+            writeFile(playerId, pending.data);
+            written.incrementAndGet();
+            pending.done.complete(true);
+            if (released.contains(playerId)) {
+                evictIfClean(playerId);
+            }
+        } catch (IOException e) {
+            System.out.println("[CSI] Ошибка сохранения " + playerId + ": " + e.getMessage());
+            // Повторим при следующем сбросе, если за это время не пришло новое содержимое или удаление
+            CompoundTag current = known.get(playerId);
+            if (current == pending.data || (current == null && index.contains(playerId))) {
+                dirty.putIfAbsent(playerId, new PendingWrite(pending.data, new CompletableFuture<>()));
+                known.putIfAbsent(playerId, pending.data);
+            }
+            pending.done.complete(false);
+        }
+    }
+
+    // Записей файлов на диск
+    public long writtenCount() {
+        return written.get();
+    }
+
+    // Сохранений, замененных более новыми до записи
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+
+    public int dirtyCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Удаляет сохранение игрока со всеми поколениями; еще не записанное содержимое отбрасывается
+     */
+    public CompletableFuture<Boolean> delete(UUID playerId) {
+        known.put(playerId, ABSENT);
+        index.remove(playerId);
+        PendingWrite pending = dirty.remove(playerId);
+        if (pending != null) {
+            pending.done.complete(false);
+        }
+        return submit(playerId, () -> {
+            try {
+                // Прежние поколения тоже удаляются, иначе чтение восстановило бы из них удаленное сохранение
+                boolean deleted = Files.deleteIfExists(file(playerId));
+                for (int i = 1; i <= backups; i++) {
+                    Files.deleteIfExists(generation(playerId, i));
+                }
+                return deleted;
+            } catch (IOException e) {
+                System.out.println("[CSI] Ошибка удаления сохранения " + playerId + ": " + e.getMessage());
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Сбрасывает грязные записи, дожидается поставленных операций (при остановке сервера) и останавливает потоки
+     */
+    public void shutdown() {
+        // Сначала дожидаемся сброса, уже идущего в потоке таймера: он ставит записи в потоки хранилища
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.out.println("[CSI] Сброс хранилища по таймеру не завершился до остановки");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : workers) {
+                if (!worker.awaitTermination(10, TimeUnit.SECONDS)) {
+                    System.out.println("[CSI] Не все операции с хранилищем завершены до остановки");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        known.clear();
+        released.clear();
+    }
+}
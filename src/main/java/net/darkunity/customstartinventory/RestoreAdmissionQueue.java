@@ -0,0 +1,186 @@
+package net.darkunity.customstartinventory;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.inventory.AbstractContainerMenu;
+import net.minecraft.world.inventory.ContainerListener;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Очередь допуска к восстановлению инвентаря.
+ * При массовом входе (перезапуск сервера, переподключение через прокси) сохраненные данные
+ * каждого игрока читаются заранее потоками хранилища, а очистка и запуск мониторинга выполняются
+ * не больше чем для заданного числа игроков за тик. Игроки, уже находящиеся в мире (возрождение),
+ * обслуживаются раньше входящих. Пока игрок с прочитанным сохранением ждет своей очереди,
+ * посторонние предметы, появившиеся в его инвентаре, удаляются; пока данные читаются, инвентарь не трогается.
+ * Все методы вызываются только из серверного потока.
+ */
+public final class RestoreAdmissionQueue {
+    public enum Priority {
+        IN_WORLD, JOINING
+    }
+
+    /**
+     * Действия CSI над игроками очереди
+     */
+    public interface Restorer {
+        // Игрок дошел до своей очереди; staged - данные CSI, прочитанные заранее
+        void admit(ServerPlayer player, CompoundTag staged);
+
+        // Нужно ли восстанавливать инвентарь по этим данным (такие игроки входят в лимит и защищаются)
+        boolean needsRestore(ServerPlayer player, CompoundTag staged);
+
+        // В инвентаре игрока, у которого есть что восстановить и который ждет лимита, появились предметы
+        void protect(ServerPlayer player);
+    }
+
+    private final Restorer restorer;
+    private final Map<UUID, Entry> entries = new LinkedHashMap<>();
+    // Очередь упирается в лимит: сообщение пишется при начале и при окончании затора
+    private boolean backlogged;
+
+    private static final class Entry {
+        final ServerPlayer player;
+        final Priority priority;
+        final CompletableFuture<CompoundTag> staged;
+        final ContainerListener listener;
+        // Первая защита очищает инвентарь так же, как раньше очистка при входе
+        boolean dirty = true;
+
+        Entry(ServerPlayer player, Priority priority, CompletableFuture<CompoundTag> staged) {
+            this.player = player;
+            this.priority = priority;
+            this.staged = staged;
+            this.listener = new ContainerListener() {
+                @Override
+                public void slotChanged(AbstractContainerMenu menu, int slotIndex, ItemStack stack) {
+                    if (!stack.isEmpty() && menu.getSlot(slotIndex).container == player.getInventory()) {
+                        dirty = true;
+                    }
+                }
+
+                @Override
+                public void dataChanged(AbstractContainerMenu menu, int dataSlotIndex, int value) {
+                }
+            };
+            player.inventoryMenu.addSlotListener(listener);
+        }
+
+        void detach() {
+            player.inventoryMenu.removeSlotListener(listener);
+        }
+    }
+
+    public RestoreAdmissionQueue(Restorer restorer) {
+        this.restorer = restorer;
+    }
+
+    /**
+     * Ставит игрока в очередь; прежняя запись игрока заменяется
+     */
+    public void submit(ServerPlayer player, Priority priority, CompletableFuture<CompoundTag> staged) {
+        remove(player.getUUID());
+        entries.put(player.getUUID(), new Entry(player, priority, staged));
+    }
+
+    public void remove(UUID playerId) {
+        Entry entry = entries.remove(playerId);
+        if (entry != null) {
+            entry.detach();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Допускает к восстановлению до {@code limit} игроков с готовыми данными:
+     * сначала находящихся в мире, затем входящих, в порядке постановки в очередь.
+     * Игроки без сохраненного инвентаря отпускаются сразу и в лимит не входят.
+     */
+    public void tick(int limit) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        int admitted = 0;
+        for (Priority priority : Priority.values()) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.priority != priority) {
+                    continue;
+                }
+                if (entry.player.isRemoved()) {
+                    entry.detach();
+                    iterator.remove();
+                    continue;
+                }
+                if (!entry.staged.isDone()) {
+                    // Данные еще читаются: пока не известно, есть ли сохранение, инвентарь не трогаем
+                    continue;
+                }
+
+                CompoundTag staged = stagedData(entry);
+                boolean restore = restorer.needsRestore(entry.player, staged);
+                if (restore && admitted >= limit) {
+                    // Ждет своей очереди: не даем оставить посторонние предметы
+                    protectIfDirty(entry);
+                    continue;
+                }
+
+                entry.detach();
+                iterator.remove();
+                try {
+                    restorer.admit(entry.player, staged);
+                } catch (Exception e) {
+                    System.out.println("[CSI] Ошибка восстановления инвентаря " + entry.player.getName().getString() + ": " + e.getMessage());
+                }
+                if (restore) {
+                    admitted++;
+                }
+            }
+        }
+
+        boolean full = admitted >= limit && !entries.isEmpty();
+        if (full && !backlogged) {
+            System.out.println("[CSI] Очередь восстановления уперлась в лимит " + limit + " за тик, ожидают " + entries.size());
+        } else if (!full && backlogged) {
+            System.out.println("[CSI] Очередь восстановления разобрана");
+        }
+        backlogged = full;
+    }
+
+    private void protectIfDirty(Entry entry) {
+        if (entry.dirty) {
+            entry.dirty = false;
+            restorer.protect(entry.player);
+        }
+    }
+
+    private static CompoundTag stagedData(Entry entry) {
+        try {
+            CompoundTag staged = entry.staged.join();
+            return staged != null ? staged : new CompoundTag();
+        } catch (Exception e) {
+            System.out.println("[CSI] Ошибка чтения сохранения " + entry.player.getName().getString() + ": " + e.getMessage());
+            return new CompoundTag();
+        }
+    }
+
+    /**
+     * Снимает слушатели (при остановке сервера)
+     */
+    public void shutdown() {
+        entries.values().forEach(Entry::detach);
+        entries.clear();
+        backlogged = false;
+    }
+}
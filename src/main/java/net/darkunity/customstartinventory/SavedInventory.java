@@ -0,0 +1,184 @@
+package net.darkunity.customstartinventory;
+
+import net.minecraft.core.HolderLookup;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.Arrays;
+
+/**
+ * Сохраненный инвентарь игрока, декодированный один раз.
+ * Предметы лежат в плоском массиве по общим индексам инвентаря
+ * (0-35 основной инвентарь, 36-39 броня, 40 оффхенд), поэтому проверки во время мониторинга
+ * и итоговая выдача не читают файл и не разбирают NBT повторно.
+ * Стаки массива не покидают этот класс - при выдаче игрок получает копии.
+ * Вместе с предметами хранится {@link InventoryFingerprint отпечаток}, с которым сравнивается живой инвентарь.
+ */
+public final class SavedInventory {
+    public static final int SIZE = InventorySyncBatcher.OFFHAND_INDEX + 1;
+
+    private final ItemStack[] slots;
+    private final boolean hasInventory;
+    private final boolean hasItems;
+    private final CompoundTag accessories;
+    private final long fingerprint;
+
+    private SavedInventory(ItemStack[] slots, boolean hasInventory, boolean hasItems, CompoundTag accessories, long fingerprint) {
+        this.slots = slots;
+        this.fingerprint = fingerprint;
+        this.hasInventory = hasInventory;
+        this.hasItems = hasItems;
+        this.accessories = accessories;
+    }
+
+    /**
+     * Декодирует данные CSI; null, если в них нет ни инвентаря, ни аксессуаров
+     */
+    public static SavedInventory decode(CompoundTag csiTag, HolderLookup.Provider registries) {
+        if (!isPresent(csiTag)) {
+            return null;
+        }
+
+        ItemStack[] slots = new ItemStack[SIZE];
+        Arrays.fill(slots, ItemStack.EMPTY);
+        boolean hasItems = false;
+
+        if (csiTag.contains("Inventory")) {
+            ListTag inventoryTag = csiTag.getList("Inventory", Tag.TAG_COMPOUND);
+            hasItems = !inventoryTag.isEmpty();
+
+            for (int i = 0; i < inventoryTag.size(); ++i) {
+                CompoundTag slotTag = inventoryTag.getCompound(i);
+                int index = index(slotTag.getByte("Slot") & 255, slotTag.getByte("Type") & 255);
+                if (index < 0 || !slotTag.contains("Item")) {
+                    continue;
+                }
+                ItemStack stack = parse(registries, slotTag.getCompound("Item"));
+                if (!stack.isEmpty()) {
+                    slots[index] = stack;
+                }
+            }
+        }
+
+        // Отпечаток записывается при сохранении; для старых файлов считается по декодированным предметам
+        long fingerprint;
+        if (csiTag.contains("Fingerprint") && csiTag.getInt("FingerprintVersion") == InventoryFingerprint.VERSION) {
+            fingerprint = csiTag.getLong("Fingerprint");
+        } else {
+            fingerprint = 0;
+            for (int i = 0; i < SIZE; i++) {
+                fingerprint ^= InventoryFingerprint.slotHash(i, slots[i], registries);
+            }
+        }
+
+        CompoundTag accessories = csiTag.contains("Accessories") ? csiTag.getCompound("Accessories") : null;
+        return new SavedInventory(slots, csiTag.contains("Inventory"), hasItems, accessories, fingerprint);
+    }
+
+    // В данных CSI есть что восстанавливать
+    public static boolean isPresent(CompoundTag csiTag) {
+        return csiTag.contains("Inventory") || csiTag.contains("Accessories");
+    }
+
+    // Слот и тип из файла -> общий индекс инвентаря; -1 для недопустимого слота
+    private static int index(int slot, int type) {
+        return switch (type) {
+            case 0 -> slot < Inventory.INVENTORY_SIZE ? slot : -1;
+            case 1 -> slot < 4 ? InventorySyncBatcher.ARMOR_START + slot : -1;
+            case 2 -> slot == 0 ? InventorySyncBatcher.OFFHAND_INDEX : -1;
+            default -> -1;
+        };
+    }
+
+    private static ItemStack parse(HolderLookup.Provider registries, CompoundTag itemTag) {
+        try {
+            if (itemTag.isEmpty()) return ItemStack.EMPTY;
+            return ItemStack.parse(registries, itemTag).orElse(ItemStack.EMPTY);
+        } catch (Exception e) {
+            return ItemStack.EMPTY;
+        }
+    }
+
+    // В сохранении есть список предметов (возможно, пустой)
+    public boolean hasInventory() {
+        return hasInventory;
+    }
+
+    // В сохранении был непустой список предметов
+    public boolean hasItems() {
+        return hasItems;
+    }
+
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    // Данные аксессуаров или null
+    public CompoundTag accessories() {
+        return accessories;
+    }
+
+    /**
+     * Первый слот, в котором инвентарь отличается от сохраненного, или -1, если совпадает все.
+     * Медленный путь для диагностики; обычная проверка сравнивает отпечатки.
+     */
+    public int firstMismatch(Inventory inventory) {
+        for (int i = 0; i < SIZE; i++) {
+            if (!itemsMatch(inventory.getItem(i), slots[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Совпадает ли стак с сохраненным в слоте index
+    public boolean slotMatches(int index, ItemStack stack) {
+        return itemsMatch(stack, slots[index]);
+    }
+
+    public boolean matches(Inventory inventory) {
+        return firstMismatch(inventory) < 0;
+    }
+
+    // Сравнение по предмету, компонентам и количеству
+    private static boolean itemsMatch(ItemStack current, ItemStack saved) {
+        if (current.isEmpty() || saved.isEmpty()) {
+            return current.isEmpty() == saved.isEmpty();
+        }
+        return ItemStack.isSameItemSameComponents(current, saved) && current.getCount() == saved.getCount();
+    }
+
+    /**
+     * Исправляет только слоты, отличающиеся от сохраненных: лишнее убирается, недостающее кладется копией.
+     * Клиент получит лишь эти слоты. Возвращает число исправленных слотов.
+     */
+    public int correct(ServerPlayer player) {
+        Inventory inventory = player.getInventory();
+        int corrected = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (!itemsMatch(inventory.getItem(i), slots[i])) {
+                inventory.setItem(i, slots[i].isEmpty() ? ItemStack.EMPTY : slots[i].copy());
+                InventorySyncBatcher.markSlot(player, i);
+                corrected++;
+            }
+        }
+        return corrected;
+    }
+
+    /**
+     * Раскладывает копии сохраненных предметов по слотам игрока; клиент получит их в конце тика
+     */
+    public void applyTo(ServerPlayer player) {
+        Inventory inventory = player.getInventory();
+        for (int i = 0; i < SIZE; i++) {
+            if (!slots[i].isEmpty()) {
+                inventory.setItem(i, slots[i].copy());
+                InventorySyncBatcher.markSlot(player, i);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.darkunity.customstartinventory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Индекс игроков, у которых есть файл в глобальном хранилище.
+ * При запуске папка сканируется в фоне (имена файлов разбираются параллельно на всех ядрах),
+ * и UUID найденных игроков складываются в отсортированный массив пар long - 16 байт на игрока.
+ * Сохранения и удаления после сканирования учитываются в небольших наборах поверх массива.
+ * Пока сканирование не завершено, индекс ничего не утверждает и хранилище обращается к диску как раньше;
+ * после - игроки без сохранения определяются без обращения к диску.
+ */
+public final class SavedPlayerIndex {
+    private static final int UUID_LENGTH = 36;
+
+    // Пары (старшие, младшие биты) в порядке UUID.compareTo
+    private volatile long[] sorted = new long[0];
+    private volatile boolean ready;
+    private final Set<UUID> added = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> removed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Запускает сканирование папки хранилища в фоне
+     */
+    public CompletableFuture<Void> scan(Path directory) {
+        return CompletableFuture.runAsync(() -> {
+            long started = System.nanoTime();
+            try (Stream<Path> files = Files.list(directory)) {
+                UUID[] players = files.parallel()
+                    .map(SavedPlayerIndex::playerOf)
+                    .filter(playerId -> playerId != null)
+                    .distinct()
+                    .sorted()
+                    .toArray(UUID[]::new);
+
+                long[] pairs = new long[players.length * 2];
+                for (int i = 0; i < players.length; i++) {
+                    pairs[i * 2] = players[i].getMostSignificantBits();
+                    pairs[i * 2 + 1] = players[i].getLeastSignificantBits();
+                }
+                sorted = pairs;
+                ready = true;
+                System.out.println("[CSI] Индекс сохранений: " + players.length + " игроков за " +
+                                   (System.nanoTime() - started) / 1_000_000 + " мс");
+            } catch (Exception e) {
+                // Индекс остается неготовым - хранилище продолжит проверять диск
+                System.out.println("[CSI] Ошибка построения индекса сохранений: " + e.getMessage());
+            }
+        });
+    }
+
+    // UUID игрока по имени файла (UUID.dat и поколения UUID.dat.N); null для посторонних файлов
+    private static UUID playerOf(Path file) {
+        String name = file.getFileName().toString();
+        if (name.length() < UUID_LENGTH + 4 || !name.startsWith(".dat", UUID_LENGTH)) {
+            return null;
+        }
+        String suffix = name.substring(UUID_LENGTH + 4);
+        if (!suffix.isEmpty() && !suffix.matches("\\.\\d+")) {
+            return null; // Временные файлы не считаются сохранением
+        }
+        try {
+            return UUID.fromString(name.substring(0, UUID_LENGTH));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Точно известно, что сохранения у игрока нет (только после сканирования)
+     */
+    public boolean isAbsent(UUID playerId) {
+        return ready && !contains(playerId);
+    }
+
+    public boolean contains(UUID playerId) {
+        if (removed.contains(playerId)) {
+            return false;
+        }
+        return added.contains(playerId) || search(playerId);
+    }
+
+    private boolean search(UUID playerId) {
+        long[] pairs = sorted;
+        long most = playerId.getMostSignificantBits();
+        long least = playerId.getLeastSignificantBits();
+        int low = 0;
+        int high = pairs.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Long.compare(pairs[mid * 2], most);
+            if (cmp == 0) {
+                cmp = Long.compare(pairs[mid * 2 + 1], least);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void add(UUID playerId) {
+        removed.remove(playerId);
+        added.add(playerId);
+    }
+
+    public void remove(UUID playerId) {
+        added.remove(playerId);
+        removed.add(playerId);
+    }
+
+    public int size() {
+        int size = sorted.length / 2;
+        for (UUID playerId : added) {
+            if (!search(playerId)) {
+                size++;
+            }
+        }
+        for (UUID playerId : removed) {
+            if (search(playerId)) {
+                size--;
+            }
+        }
+        return size;
+    }
+}
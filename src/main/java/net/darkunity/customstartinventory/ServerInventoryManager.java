@@ -2,26 +2,49 @@ package net.darkunity.customstartinventory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.core.HolderLookup;
+import net.minecraft.core.component.DataComponentPatch;
 import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.NbtOps;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
-import net.minecraft.world.item.Items;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ServerInventoryManager {
-    private static final String CONFIG_FILE_NAME = "starter-kits.json";
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-    private static Path configPath;
-    private static StarterKit defaultStarterKit;
+    static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    // Файл обмена для /csi kit export и /csi kit import (в папке конфигурации)
+    public static final String EXPORT_FILE = "kits-export.json";
+    private static Path configDir;
+    // Формат хранения каталога на диске
+    private static KitStorage storage;
+    // Каталог наборов в памяти: загружается в init()/reloadConfig() и заменяется целиком
+    private static volatile KitRegistry registry = KitRegistry.EMPTY;
+    // Фоновая запись каталога на диск
+    private static KitCatalogWriter writer;
+    // Наблюдатель за файлом каталога и подготовленный им снимок, ожидающий следующего тика
+    private static KitCatalogWatcher watcher;
+    private static final AtomicReference<PendingSwap> pendingSwap = new AtomicReference<>();
+    // Реестры текущего сервера: нужны для кодирования компонентов предметов
+    private static volatile HolderLookup.Provider registries;
+    // Очередь массовой выдачи наборов (только серверный поток)
+    private static final KitDeliveryQueue deliveries = new KitDeliveryQueue();
+    
+    // Новый снимок вместе со снимком, относительно которого он был вычислен
+    // changed - файлы, по которым построен снимок (null - все); нужны, чтобы повторить разбор от нового каталога
+    private record PendingSwap(KitRegistry base, KitRegistry next, Set<Path> changed) {}
+    // Разборы наблюдателя и повторные разборы выполняются по одному
+    private static final Object reloadLock = new Object();
     
     // Структура для хранения набора предметов
     public static class StarterKit {
@@ -42,12 +65,45 @@ public class ServerInventoryManager {
             this.kitName = name;
             this.giveOnFirstJoin = false; // По умолчанию только ручная выдача
         }
+        
+        // Делает списки неизменяемыми перед публикацией в реестре
+        StarterKit freeze() {
+            this.items = immutableItems(this.items);
+            this.armor = immutableItems(this.armor);
+            this.offhand = immutableItems(this.offhand);
+            return this;
+        }
+        
+        // Сравнение содержимого наборов (для инкрементальной перезагрузки)
+        boolean sameContent(StarterKit other) {
+            return other != null
+                && Objects.equals(kitName, other.kitName)
+                && giveOnFirstJoin == other.giveOnFirstJoin
+                && immutableItems(items).equals(immutableItems(other.items))
+                && immutableItems(armor).equals(immutableItems(other.armor))
+                && immutableItems(offhand).equals(immutableItems(other.offhand));
+        }
+        
+        private static List<KitItem> immutableItems(List<KitItem> source) {
+            if (source == null || source.isEmpty()) {
+                return List.of();
+            }
+            List<KitItem> result = new ArrayList<>(source.size());
+            for (KitItem item : source) {
+                if (item != null && item.itemId != null) {
+                    result.add(item);
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
     }
     
     public static class KitItem {
         public String itemId;
         public int slot;
         public int count;
+        // Компоненты предмета (зачарования, имя и т.д.) в виде SNBT; null - предмет без изменений
+        public String components;
         
         public KitItem() {}
         
@@ -56,31 +112,68 @@ public class ServerInventoryManager {
             this.slot = slot;
             this.count = count;
         }
+        
+        // Полная копия стака вместе с компонентами
+        public static KitItem of(ItemStack stack, int slot, HolderLookup.Provider registries) {
+            ResourceLocation itemId = BuiltInRegistries.ITEM.getKey(stack.getItem());
+            KitItem item = new KitItem(itemId.toString(), slot, stack.getCount());
+            
+            DataComponentPatch patch = stack.getComponentsPatch();
+            if (!patch.isEmpty() && registries != null) {
+                item.components = DataComponentPatch.CODEC
+                    .encodeStart(registries.createSerializationContext(NbtOps.INSTANCE), patch)
+                    .resultOrPartial(error -> System.out.println("[CSI] Не удалось сохранить компоненты " + itemId + ": " + error))
+                    .map(Object::toString)
+                    .orElse(null);
+            }
+            return item;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof KitItem other)) return false;
+            return slot == other.slot && count == other.count && Objects.equals(itemId, other.itemId)
+                && Objects.equals(components, other.components);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(itemId, slot, count, components);
+        }
     }
     
     // Инициализация и загрузка конфигурации
-    public static void init() {
+    public static void init(MinecraftServer server) {
         try {
-            Path configDir = Paths.get("config", "customstartinventory");
-            configPath = configDir.resolve(CONFIG_FILE_NAME);
+            configDir = Paths.get("config", "customstartinventory");
             
             if (!Files.exists(configDir)) {
                 Files.createDirectories(configDir);
             }
             
-            // Если файл не существует, создаем пример конфигурации
-            if (!Files.exists(configPath)) {
-                createExampleConfig();
-                System.out.println("[CSI] Создан пустой файл конфигурации starter-kits.json");
-                System.out.println("[CSI] Используйте команды:");
+            shutdown();
+            // Прототипы прошлого сервера собраны по чужим реестрам - каталог собирается заново
+            registries = server.registryAccess();
+            registry = KitRegistry.EMPTY;
+            storage = createStorage(configDir);
+            storage.prepare();
+            writer = new KitCatalogWriter(storage);
+            
+            // Загружаем конфигурацию
+            loadConfig();
+            
+            if (registry.isEmpty()) {
+                System.out.println("[CSI] Наборов пока нет. Используйте команды:");
                 System.out.println("[CSI]   /csi kit create <name> - создать набор из вашего инвентаря");
                 System.out.println("[CSI]   /csi kit <name> - выдать набор себе");
                 System.out.println("[CSI]   /csi kit <name> <player> - выдать набор другому игроку");
                 System.out.println("[CSI]   /csi kit list - список всех наборов");
             }
             
-            // Загружаем конфигурацию
-            loadConfig();
+            // Горячая перезагрузка при ручном редактировании файлов
+            watcher = new KitCatalogWatcher(storage.directory(), storage::isRelevant, ServerInventoryManager::prepareReload);
+            watcher.start();
             
         } catch (Exception e) {
             System.out.println("[CSI] Ошибка инициализации ServerInventoryManager: " + e.getMessage());
@@ -88,38 +181,26 @@ public class ServerInventoryManager {
         }
     }
     
-    // Создание примера конфигурации
-    private static void createExampleConfig() throws IOException {
-        List<StarterKit> kits = new ArrayList<>();
-        
-        // Сохраняем пустой список
-        saveConfig(kits);
+    // Выбор формата хранения каталога по настройке
+    private static KitStorage createStorage(Path configDir) {
+        return switch (CustomStartInventory.KIT_STORAGE.get()) {
+            case JSON -> new JsonKitStorage(configDir, GSON);
+            case SHARDED -> new ShardedKitStorage(configDir, GSON);
+            case BINARY -> new BinaryKitStorage(configDir, GSON);
+        };
     }
     
-    // Загрузка конфигурации из файла
+    // Загрузка конфигурации в реестр
     private static void loadConfig() {
         try {
-            if (!Files.exists(configPath)) {
-                defaultStarterKit = null;
-                return;
-            }
+            // Пересобираются только изменившиеся наборы
+            KitRegistry loaded = storage.load(registry);
+            registry = loaded;
             
-            try (Reader reader = new FileReader(configPath.toFile())) {
-                List<StarterKit> kits = GSON.fromJson(reader, new TypeToken<List<StarterKit>>(){}.getType());
-                
-                if (kits != null) {
-                    // Находим набор для автоматической выдачи
-                    for (StarterKit kit : kits) {
-                        if (kit.giveOnFirstJoin) {
-                            defaultStarterKit = kit;
-                            System.out.println("[CSI] Загружен набор для автоматической выдачи: " + kit.kitName);
-                            break;
-                        }
-                    }
-                    
-                    System.out.println("[CSI] Загружено " + kits.size() + " наборов предметов");
-                }
+            if (loaded.defaultKit() != null) {
+                System.out.println("[CSI] Загружен набор для автоматической выдачи: " + loaded.defaultKit().kitName);
             }
+            System.out.println("[CSI] Загружено " + loaded.size() + " наборов предметов");
             
         } catch (Exception e) {
             System.out.println("[CSI] Ошибка загрузки конфигурации: " + e.getMessage());
@@ -127,55 +208,168 @@ public class ServerInventoryManager {
         }
     }
     
-    // Сохранение конфигурации в файл
-    private static void saveConfig(List<StarterKit> kits) throws IOException {
-        String json = GSON.toJson(kits);
-        Files.writeString(configPath, json);
-    }
-    
-    // Получение всех наборов
-    public static List<StarterKit> getAllKits() {
-        try {
-            if (!Files.exists(configPath)) {
-                return new ArrayList<>();
+    // Вызывается потоком наблюдателя: разбор и компиляция выполняются вне серверного потока
+    private static void prepareReload(Set<Path> changed) {
+        synchronized (reloadLock) {
+            KitStorage current = storage;
+            if (current == null) {
+                return;
             }
             
-            try (Reader reader = new FileReader(configPath.toFile())) {
-                List<StarterKit> kits = GSON.fromJson(reader, new TypeToken<List<StarterKit>>(){}.getType());
-                return kits != null ? kits : new ArrayList<>();
+            // Еще не примененный снимок заменяется новым, поэтому его файлы разбираются заново вместе с новыми
+            PendingSwap unapplied = pendingSwap.getAndSet(null);
+            Set<Path> files = unapplied == null ? changed : mergeChanged(unapplied.changed(), changed);
+            
+            KitRegistry base = registry;
+            KitRegistry next;
+            try {
+                next = current.reload(base, files);
+            } catch (Exception e) {
+                // Файл может быть еще не дописан редактором - оставляем текущий каталог
+                System.out.println("[CSI] Не удалось перечитать наборы: " + e.getMessage());
+                if (unapplied != null) {
+                    pendingSwap.compareAndSet(null, unapplied);
+                }
+                return;
             }
-        } catch (Exception e) {
-            System.out.println("[CSI] Ошибка получения списка наборов: " + e.getMessage());
-            return new ArrayList<>();
+            
+            if (next == base) {
+                return; // Содержимое не изменилось (например, это наша собственная запись)
+            }
+            pendingSwap.set(new PendingSwap(base, next, files));
         }
     }
     
-    // Получение набора по имени
-    public static StarterKit getKit(String kitName) {
-        List<StarterKit> kits = getAllKits();
-        for (StarterKit kit : kits) {
-            if (kit.kitName.equalsIgnoreCase(kitName)) {
-                return kit;
+    // Объединение наборов измененных файлов; null - проверить все
+    private static Set<Path> mergeChanged(Set<Path> first, Set<Path> second) {
+        if (first == null || second == null) {
+            return null;
+        }
+        Set<Path> merged = new HashSet<>(first);
+        merged.addAll(second);
+        return merged;
+    }
+    
+    // Вызывается в конце серверного тика
+    public static void tick(MinecraftServer server) {
+        applyPendingSwap();
+        deliveries.drain(server, CustomStartInventory.KIT_DELIVERY_BUDGET.get() * 1000L);
+    }
+    
+    // Применение подготовленного снимка
+    private static void applyPendingSwap() {
+        PendingSwap swap = pendingSwap.getAndSet(null);
+        if (swap == null) {
+            return;
+        }
+        
+        if (registry != swap.base()) {
+            // Каталог изменили команды, пока файлы разбирались: разбираем те же файлы заново от текущего каталога.
+            // Собственная запись команд затрагивает только их наборы и не вернула бы внешние правки.
+            System.out.println("[CSI] Каталог изменился во время перезагрузки наборов, файлы перечитываются");
+            Set<Path> changed = swap.changed();
+            CompletableFuture.runAsync(() -> prepareReload(changed));
+            return;
+        }
+        
+        int changed = 0;
+        for (KitEntry entry : swap.next().entries()) {
+            if (swap.base().entry(entry.name()) != entry) {
+                changed++;
             }
         }
-        return null;
+        int removed = 0;
+        for (KitEntry entry : swap.base().entries()) {
+            if (!swap.next().contains(entry.name())) {
+                removed++;
+            }
+        }
+        
+        registry = swap.next();
+        System.out.println("[CSI] Наборы перезагружены из файлов: изменено " + changed +
+                         ", удалено " + removed + ", всего " + swap.next().size());
+    }
+    
+    // Реестры для разбора компонентов; null, пока сервер не запущен
+    static HolderLookup.Provider registries() {
+        return registries;
+    }
+    
+    // Запись файла конфигурации фоновым потоком записи наборов (синхронно, если он не запущен)
+    static void writeFileInBackground(Path target, String content, Runnable onFailure) {
+        KitCatalogWriter current = writer;
+        if (current != null) {
+            current.writeFileLater(target, content, onFailure);
+            return;
+        }
+        try {
+            KitCatalogWriter.writeAtomically(target, content);
+        } catch (IOException e) {
+            System.out.println("[CSI] Ошибка записи " + target.getFileName() + ": " + e.getMessage());
+            onFailure.run();
+        }
+    }
+    
+    // Папка конфигурации мода; null до init
+    static Path configDir() {
+        return configDir;
+    }
+    
+    // Публикация нового снимка: сразу в памяти, на диск - фоновым потоком
+    private static void publish(KitRegistry updated, String changedKitName) {
+        registry = updated;
+        if (writer != null) {
+            writer.submit(updated, changedKitName == null ? null : KitRegistry.key(changedKitName));
+        }
+    }
+    
+    // Дописывает ожидающие изменения и останавливает фоновую запись (при остановке сервера)
+    public static void shutdown() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+        pendingSwap.set(null);
+        
+        if (!deliveries.isEmpty()) {
+            System.out.println("[CSI] Массовая выдача прервана остановкой сервера, не обслужено игроков: " + deliveries.pending());
+            deliveries.clear();
+        }
+        
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+    
+    // Получение всех наборов с загруженными телами
+    public static List<StarterKit> getAllKits() {
+        return registry.all();
+    }
+    
+    // Записи каталога без загрузки тел (для списков)
+    public static List<KitEntry> getKitEntries() {
+        return registry.entries();
+    }
+    
+    // Получение набора по имени (без учета регистра, без повторного разбора файлов)
+    public static StarterKit getKit(String kitName) {
+        return registry.get(kitName);
     }
     
     // Получение стандартного набора (для автоматической выдачи)
     public static StarterKit getDefaultKit() {
-        return defaultStarterKit;
+        return registry.defaultKit();
     }
     
     // Создание нового набора из инвентаря игрока
     public static boolean createKitFromInventory(ServerPlayer player, String kitName) {
         try {
-            List<StarterKit> kits = getAllKits();
+            KitRegistry current = registry;
             
             // Проверяем, не существует ли уже набор с таким именем
-            for (StarterKit kit : kits) {
-                if (kit.kitName.equalsIgnoreCase(kitName)) {
-                    return false; // Набор уже существует
-                }
+            if (current.contains(kitName)) {
+                return false; // Набор уже существует
             }
             
             // Создаем новый набор
@@ -187,13 +381,7 @@ public class ServerInventoryManager {
             for (int i = 0; i < player.getInventory().items.size(); i++) {
                 ItemStack stack = player.getInventory().items.get(i);
                 if (!stack.isEmpty()) {
-                    ResourceLocation itemId = BuiltInRegistries.ITEM.getKey(stack.getItem());
-                    KitItem item = new KitItem(
-                        itemId.toString(),
-                        i,
-                        stack.getCount()
-                    );
-                    newKit.items.add(item);
+                    newKit.items.add(KitItem.of(stack, i, player.registryAccess()));
                 }
             }
             
@@ -201,13 +389,7 @@ public class ServerInventoryManager {
             for (int i = 0; i < player.getInventory().armor.size(); i++) {
                 ItemStack stack = player.getInventory().armor.get(i);
                 if (!stack.isEmpty()) {
-                    ResourceLocation itemId = BuiltInRegistries.ITEM.getKey(stack.getItem());
-                    KitItem item = new KitItem(
-                        itemId.toString(),
-                        i,
-                        stack.getCount()
-                    );
-                    newKit.armor.add(item);
+                    newKit.armor.add(KitItem.of(stack, i, player.registryAccess()));
                 }
             }
             
@@ -215,22 +397,12 @@ public class ServerInventoryManager {
             if (!player.getInventory().offhand.isEmpty()) {
                 ItemStack stack = player.getInventory().offhand.get(0);
                 if (!stack.isEmpty()) {
-                    ResourceLocation itemId = BuiltInRegistries.ITEM.getKey(stack.getItem());
-                    KitItem item = new KitItem(
-                        itemId.toString(),
-                        0,
-                        stack.getCount()
-                    );
-                    newKit.offhand.add(item);
+                    newKit.offhand.add(KitItem.of(stack, 0, player.registryAccess()));
                 }
             }
             
-            // Добавляем новый набор и сохраняем
-            kits.add(newKit);
-            saveConfig(kits);
-            
-            // Перезагружаем конфигурацию
-            loadConfig();
+            // Добавляем новый набор и публикуем новый снимок
+            publish(current.with(newKit), kitName);
             
             System.out.println("[CSI] Создан новый набор: " + kitName + " из инвентаря " + player.getName().getString());
             return true;
@@ -245,29 +417,15 @@ public class ServerInventoryManager {
     // Удаление набора
     public static boolean removeKit(String kitName) {
         try {
-            List<StarterKit> kits = getAllKits();
+            KitRegistry current = registry;
             
             // Проверяем, существует ли набор
-            boolean found = false;
-            StarterKit kitToRemove = null;
-            for (StarterKit kit : kits) {
-                if (kit.kitName.equalsIgnoreCase(kitName)) {
-                    kitToRemove = kit;
-                    found = true;
-                    break;
-                }
-            }
-            
-            if (!found) {
+            if (!current.contains(kitName)) {
                 return false;
             }
             
-            // Удаляем набор
-            kits.remove(kitToRemove);
-            saveConfig(kits);
-            
-            // Перезагружаем конфигурацию
-            loadConfig();
+            // Удаляем набор и публикуем новый снимок
+            publish(current.without(kitName), kitName);
             
             System.out.println("[CSI] Набор удален: " + kitName);
             return true;
@@ -282,11 +440,7 @@ public class ServerInventoryManager {
     // Удаление всех наборов
     public static boolean removeAllKits() {
         try {
-            List<StarterKit> kits = new ArrayList<>();
-            saveConfig(kits);
-            
-            // Перезагружаем конфигурацию
-            loadConfig();
+            publish(KitRegistry.EMPTY, null);
             
             System.out.println("[CSI] Все наборы удалены");
             return true;
@@ -298,39 +452,43 @@ public class ServerInventoryManager {
         }
     }
     
-    // Выдача набора игроку
+    // Выдача набора игроку по заранее скомпилированному плану
     public static boolean giveKitToPlayer(ServerPlayer player, String kitName) {
-        StarterKit kit = getKit(kitName);
-        if (kit == null) {
+        CompiledKit plan = registry.compiled(kitName);
+        if (plan == null) {
             return false;
         }
         
-        System.out.println("[CSI] Выдача набора '" + kit.kitName + "' игроку " + player.getName().getString());
+        System.out.println("[CSI] Выдача набора '" + plan.kit().kitName + "' игроку " + player.getName().getString());
         
-        try {
-            // Выдача предметов в основной инвентарь
-            for (KitItem kitItem : kit.items) {
-                giveItemToSlot(player, kitItem, false);
-            }
-            
-            // Выдача брони
-            for (KitItem kitItem : kit.armor) {
-                giveItemToSlot(player, kitItem, true);
-            }
-            
-            // Выдача оффхенда
-            for (KitItem kitItem : kit.offhand) {
-                giveOffhandItem(player, kitItem);
-            }
-            
-            // Обновление инвентаря
-            player.inventoryMenu.slotsChanged(player.getInventory());
-            
+        boolean success = deliver(player, plan);
+        if (success) {
             System.out.println("[CSI] Набор успешно выдан");
+        }
+        return success;
+    }
+    
+    // Постановка выдачи набора нескольким игрокам в очередь; возвращает число получателей
+    public static int queueKitDelivery(CommandSourceStack source, Collection<ServerPlayer> players, String kitName) {
+        CompiledKit plan = registry.compiled(kitName);
+        if (plan == null || players.isEmpty()) {
+            return 0;
+        }
+        
+        deliveries.submit(plan, source, players);
+        System.out.println("[CSI] Массовая выдача набора '" + plan.kit().kitName + "' поставлена в очередь: " + players.size() + " игроков");
+        return players.size();
+    }
+    
+    // Раскладка плана по слотам игрока без лишнего логирования (используется и очередью выдачи)
+    static boolean deliver(ServerPlayer player, CompiledKit plan) {
+        try {
+            // Слоты отправятся клиенту в конце тика
+            plan.applyTo(player);
             return true;
             
         } catch (Exception e) {
-            System.out.println("[CSI] Ошибка выдачи набора: " + e.getMessage());
+            System.out.println("[CSI] Ошибка выдачи набора игроку " + player.getName().getString() + ": " + e.getMessage());
             e.printStackTrace();
             return false;
         }
@@ -338,9 +496,10 @@ public class ServerInventoryManager {
     
     // Выдача стандартного набора при первом входе
     public static void giveDefaultKitOnFirstJoin(ServerPlayer player) {
-        if (defaultStarterKit != null) {
+        StarterKit defaultKit = registry.defaultKit();
+        if (defaultKit != null) {
             System.out.println("[CSI] Выдача стандартного набора новому игроку: " + player.getName().getString());
-            giveKitToPlayer(player, defaultStarterKit.kitName);
+            giveKitToPlayer(player, defaultKit.kitName);
             
             // Отправляем сообщение игроку
             if (!CustomStartInventory.HIDE_CHAT_MESSAGES.get()) {
@@ -349,60 +508,51 @@ public class ServerInventoryManager {
         }
     }
     
-    // Вспомогательный метод: выдача предмета в слот
-    private static void giveItemToSlot(ServerPlayer player, KitItem kitItem, boolean isArmor) {
+    // Выгрузка каталога в JSON для ручной правки; возвращает число наборов или -1 при ошибке
+    public static int exportKits() {
+        if (configDir == null) {
+            return -1;
+        }
         try {
-            // Разбираем ID предмета
-            ResourceLocation itemId = ResourceLocation.parse(kitItem.itemId);
-            Item item = BuiltInRegistries.ITEM.get(itemId);
-            
-            if (item == null || item == Items.AIR) {
-                System.out.println("[CSI] Предмет не найден: " + kitItem.itemId);
-                return;
-            }
-            
-            ItemStack stack = new ItemStack(item, kitItem.count);
-            
-            if (isArmor) {
-                // Для брони
-                if (kitItem.slot >= 0 && kitItem.slot < player.getInventory().armor.size()) {
-                    player.getInventory().armor.set(kitItem.slot, stack);
-                }
-            } else {
-                // Для основного инвентаря
-                if (kitItem.slot >= 0 && kitItem.slot < player.getInventory().items.size()) {
-                    player.getInventory().items.set(kitItem.slot, stack);
-                }
-            }
+            List<StarterKit> kits = registry.all();
+            KitCatalogWriter.writeAtomically(configDir.resolve(EXPORT_FILE), GSON.toJson(kits));
+            System.out.println("[CSI] Наборы экспортированы в " + EXPORT_FILE + ": " + kits.size());
+            return kits.size();
         } catch (Exception e) {
-            System.out.println("[CSI] Ошибка выдачи предмета: " + kitItem.itemId + " - " + e.getMessage());
+            System.out.println("[CSI] Ошибка экспорта наборов: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
         }
     }
     
-    // Вспомогательный метод: выдача предмета в оффхенд
-    private static void giveOffhandItem(ServerPlayer player, KitItem kitItem) {
+    // Замена каталога содержимым файла обмена; возвращает число наборов или -1 при ошибке
+    public static int importKits() {
+        Path file = configDir == null ? null : configDir.resolve(EXPORT_FILE);
+        if (file == null || !Files.exists(file)) {
+            return -1;
+        }
         try {
-            // Разбираем ID предмета
-            ResourceLocation itemId = ResourceLocation.parse(kitItem.itemId);
-            Item item = BuiltInRegistries.ITEM.get(itemId);
-            
-            if (item == null || item == Items.AIR) {
-                System.out.println("[CSI] Предмет не найден: " + kitItem.itemId);
-                return;
-            }
-            
-            ItemStack stack = new ItemStack(item, kitItem.count);
+            List<StarterKit> kits = new ArrayList<>();
+            JsonKitStorage.forEachKit(file, GSON, kits::add);
             
-            if (!player.getInventory().offhand.isEmpty()) {
-                player.getInventory().offhand.set(0, stack);
-            }
+            // Неизмененные наборы сохраняют свои планы, запись на диск - в формате хранилища
+            KitRegistry imported = registry.reconcile(kits);
+            publish(imported, null);
+            System.out.println("[CSI] Наборы импортированы из " + EXPORT_FILE + ": " + imported.size());
+            return imported.size();
         } catch (Exception e) {
-            System.out.println("[CSI] Ошибка выдачи предмета в оффхенд: " + kitItem.itemId + " - " + e.getMessage());
+            System.out.println("[CSI] Ошибка импорта наборов: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
         }
     }
     
     // Перезагрузка конфигурации
     public static void reloadConfig() {
+        // Несохраненные изменения пишутся до чтения, иначе перезагрузка их потеряет
+        if (writer != null) {
+            writer.flush();
+        }
         loadConfig();
         System.out.println("[CSI] Конфигурация наборов перезагружена");
     }
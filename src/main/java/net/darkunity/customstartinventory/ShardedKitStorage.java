@@ -0,0 +1,305 @@
+package net.darkunity.customstartinventory;
+
+import com.google.gson.Gson;
+import net.darkunity.customstartinventory.ServerInventoryManager.StarterKit;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хранение каталога по одному файлу на набор в config/customstartinventory/kits/
+ * плюс небольшой manifest.json с именами и метаданными.
+ * При загрузке читается только манифест, тела наборов подгружаются при первом использовании,
+ * а создание или удаление набора затрагивает только его файл и манифест.
+ */
+public final class ShardedKitStorage implements KitStorage {
+    public static final String KITS_DIR = "kits";
+    public static final String MANIFEST_FILE = "manifest.json";
+    private static final String IMPORTED_SUFFIX = ".imported";
+
+    private final Path configDir;
+    private final Path kitsDir;
+    private final Path manifestFile;
+    private final Gson gson;
+    // Ключ набора -> имя его файла (файлы, добавленные вручную, могут называться иначе)
+    private final Map<String, String> files = new ConcurrentHashMap<>();
+
+    // Формат манифеста
+    private static class Manifest {
+        int version = 1;
+        List<ManifestEntry> kits = new ArrayList<>();
+    }
+
+    private static class ManifestEntry {
+        String name;
+        String file;
+        boolean giveOnFirstJoin;
+        int itemCount;
+    }
+
+    public ShardedKitStorage(Path configDir, Gson gson) {
+        this.configDir = configDir;
+        this.kitsDir = configDir.resolve(KITS_DIR);
+        this.manifestFile = kitsDir.resolve(MANIFEST_FILE);
+        this.gson = gson;
+    }
+
+    @Override
+    public Path directory() {
+        return kitsDir;
+    }
+
+    @Override
+    public boolean isRelevant(Path fileName) {
+        return fileName.toString().endsWith(".json");
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        Files.createDirectories(kitsDir);
+        if (Files.exists(manifestFile)) {
+            return;
+        }
+
+        Path legacy = configDir.resolve(JsonKitStorage.FILE_NAME);
+        if (Files.exists(legacy)) {
+            importLegacy(legacy);
+        } else {
+            // Манифеста нет: собираем его из файлов наборов, если они есть
+            KitRegistry scanned = reload(KitRegistry.EMPTY, null);
+            writeManifest(scanned);
+            if (!scanned.isEmpty()) {
+                System.out.println("[CSI] Манифест наборов восстановлен по файлам: " + scanned.size());
+            }
+        }
+    }
+
+    // Однократный импорт старого starter-kits.json: наборы читаются потоково и пишутся по одному
+    private void importLegacy(Path legacy) throws IOException {
+        List<KitEntry> entries = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        JsonKitStorage.forEachKit(legacy, gson, kit -> {
+            if (kit.kitName == null || kit.kitName.isEmpty() || !seen.add(KitRegistry.key(kit.kitName))) {
+                return;
+            }
+            String key = KitRegistry.key(kit.kitName);
+            String fileName = files.computeIfAbsent(key, ShardedKitStorage::fileName);
+            Path path = kitsDir.resolve(fileName);
+            KitCatalogWriter.writeAtomically(path, gson.toJson(kit.freeze()));
+            entries.add(KitEntry.lazy(kit.kitName, kit.giveOnFirstJoin, KitEntry.itemCount(kit), stampOf(path), 0,
+                () -> readKit(path)));
+        });
+        KitRegistry imported = KitRegistry.fromEntries(entries);
+        writeManifest(imported);
+
+        Path renamed = legacy.resolveSibling(legacy.getFileName() + IMPORTED_SUFFIX);
+        Files.move(legacy, renamed, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("[CSI] Импортировано наборов из " + JsonKitStorage.FILE_NAME + ": " + imported.size() +
+                         " (старый файл переименован в " + renamed.getFileName() + ")");
+    }
+
+    @Override
+    public KitRegistry load(KitRegistry previous) throws IOException {
+        return reload(previous, null);
+    }
+
+    @Override
+    public KitRegistry reload(KitRegistry base, Set<Path> changed) throws IOException {
+        boolean full = changed == null;
+        Set<String> changedFiles = new HashSet<>();
+        if (!full) {
+            for (Path path : changed) {
+                changedFiles.add(path.toString());
+            }
+        }
+
+        // Индекс: из манифеста, если он изменился, иначе из текущего снимка
+        List<ManifestEntry> index;
+        if (full || changedFiles.contains(MANIFEST_FILE)) {
+            index = readManifest();
+        } else {
+            index = new ArrayList<>(base.size());
+            for (KitEntry entry : base.entries()) {
+                index.add(toManifestEntry(entry));
+            }
+        }
+
+        List<KitEntry> next = new ArrayList<>(index.size());
+        Set<String> referenced = new HashSet<>();
+        for (ManifestEntry item : index) {
+            if (item == null || item.name == null || item.name.isEmpty()) {
+                continue;
+            }
+            String key = KitRegistry.key(item.name);
+            String fileName = item.file != null ? item.file : fileName(key);
+            Path path = kitsDir.resolve(fileName);
+            referenced.add(fileName);
+
+            if (!Files.exists(path)) {
+                System.out.println("[CSI] Файл набора не найден, набор пропущен: " + fileName);
+                continue;
+            }
+            files.put(key, fileName);
+
+            KitEntry existing = base.entry(item.name);
+            long stamp = stampOf(path);
+            // При полной проверке загруженные наборы сверяются по содержимому: время изменения
+            // может совпасть при правке в ту же миллисекунду (план переиспользуется, если текст тот же)
+            boolean fileChanged = full
+                ? existing == null || !existing.sameFileTime(stamp) || existing.isLoaded()
+                : changedFiles.contains(fileName);
+
+            if (existing != null && !fileChanged
+                && existing.giveOnFirstJoin() == item.giveOnFirstJoin && existing.itemCount() == item.itemCount) {
+                next.add(existing);
+            } else if (fileChanged && existing != null) {
+                // Измененный файл разбирается сразу, чтобы не нагружать серверный поток при выдаче
+                next.add(loadChanged(existing, item.name, path, stamp));
+            } else {
+                next.add(KitEntry.lazy(item.name, item.giveOnFirstJoin, item.itemCount, stamp, 0, () -> readKit(path)));
+            }
+        }
+
+        // Новые файлы, которых еще нет в манифесте
+        for (Path path : listKitFiles()) {
+            String fileName = path.getFileName().toString();
+            if (referenced.contains(fileName) || (!full && !changedFiles.contains(fileName))) {
+                continue;
+            }
+            StarterKit kit = readKit(path);
+            if (kit == null || kit.kitName == null || kit.kitName.isEmpty()) {
+                System.out.println("[CSI] Файл набора без имени пропущен: " + fileName);
+                continue;
+            }
+            files.put(KitRegistry.key(kit.kitName), fileName);
+            next.add(KitEntry.of(kit, stampOf(path), 0));
+            System.out.println("[CSI] Найден новый файл набора: " + fileName);
+        }
+
+        return base.withEntries(next);
+    }
+
+    private KitEntry loadChanged(KitEntry existing, String name, Path path, long stamp) throws IOException {
+        StarterKit kit = readKit(path);
+        if (kit == null) {
+            throw new IOException("пустой файл набора " + path.getFileName());
+        }
+        kit.kitName = name;
+        // Наша собственная запись: содержимое не изменилось, план переиспользуется
+        if (existing.isLoaded() && existing.kit().sameContent(kit)) {
+            return existing;
+        }
+        return KitEntry.of(kit, stamp, 0);
+    }
+
+    @Override
+    public void persist(KitRegistry snapshot, Set<String> dirtyKeys) throws IOException {
+        if (dirtyKeys == null) {
+            // Изменилось все: переписываем наборы и удаляем файлы, которых нет в снимке
+            Set<String> keep = new HashSet<>();
+            for (KitEntry entry : snapshot.entries()) {
+                String key = KitRegistry.key(entry.name());
+                writeKit(key, entry);
+                keep.add(files.get(key));
+            }
+            for (Path path : listKitFiles()) {
+                if (!keep.contains(path.getFileName().toString())) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            files.keySet().removeIf(key -> !snapshot.contains(key));
+        } else {
+            for (String key : dirtyKeys) {
+                KitEntry entry = snapshot.entry(key);
+                if (entry != null) {
+                    writeKit(key, entry);
+                } else {
+                    String fileName = files.remove(key);
+                    Files.deleteIfExists(kitsDir.resolve(fileName != null ? fileName : fileName(key)));
+                }
+            }
+        }
+        writeManifest(snapshot);
+    }
+
+    private void writeKit(String key, KitEntry entry) throws IOException {
+        StarterKit kit = entry.kit();
+        if (kit == null) {
+            return; // Тело не загрузилось - оставляем файл как есть
+        }
+        String fileName = files.computeIfAbsent(key, ShardedKitStorage::fileName);
+        KitCatalogWriter.writeAtomically(kitsDir.resolve(fileName), gson.toJson(kit));
+    }
+
+    private void writeManifest(KitRegistry snapshot) throws IOException {
+        Manifest manifest = new Manifest();
+        for (KitEntry entry : snapshot.entries()) {
+            manifest.kits.add(toManifestEntry(entry));
+        }
+        KitCatalogWriter.writeAtomically(manifestFile, gson.toJson(manifest));
+    }
+
+    private ManifestEntry toManifestEntry(KitEntry entry) {
+        ManifestEntry item = new ManifestEntry();
+        item.name = entry.name();
+        item.file = files.getOrDefault(KitRegistry.key(entry.name()), fileName(KitRegistry.key(entry.name())));
+        item.giveOnFirstJoin = entry.giveOnFirstJoin();
+        item.itemCount = entry.itemCount();
+        return item;
+    }
+
+    private List<ManifestEntry> readManifest() throws IOException {
+        if (!Files.exists(manifestFile)) {
+            return new ArrayList<>();
+        }
+        try (Reader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+            Manifest manifest = gson.fromJson(reader, Manifest.class);
+            return manifest != null && manifest.kits != null ? manifest.kits : new ArrayList<>();
+        }
+    }
+
+    private StarterKit readKit(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, StarterKit.class);
+        }
+    }
+
+    private List<Path> listKitFiles() throws IOException {
+        List<Path> result = new ArrayList<>();
+        if (!Files.isDirectory(kitsDir)) {
+            return result;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(kitsDir, "*.json")) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().equals(MANIFEST_FILE)) {
+                    result.add(path);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static long stampOf(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Имя файла набора по его ключу
+    static String fileName(String key) {
+        String safe = key.replaceAll("[^a-z0-9_.+-]", "_");
+        if (safe.isEmpty() || safe.startsWith(".") || (safe + ".json").equals(MANIFEST_FILE)) {
+            safe = "_" + safe;
+        }
+        return safe + ".json";
+    }
+}
@@ -0,0 +1,267 @@
+package net.darkunity.customstartinventory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Планировщик задач по серверным тикам на основе хэшированного колеса времени.
+ * Задача кладется в ячейку колеса по абсолютному тику выполнения, поэтому за тик
+ * просматривается только одна ячейка, а не все ожидающие задачи.
+ * Задачи, поставленные не из серверного потока, попадают во входящую очередь
+ * и переносятся в колесо в начале следующего тика. Любую задачу можно отменить через {@link Handle}.
+ *
+ * Наступившие задачи выполняются в пределах бюджета времени на тик. Задачи группируются по владельцу
+ * (обычно UUID игрока) и обходятся по кругу - по одной задаче владельца за проход, поэтому при
+ * массовом входе игроков каждый продвигается понемногу. Не уложившиеся в бюджет задачи
+ * переносятся на следующий тик и выполняются раньше новых.
+ */
+public final class TickScheduler {
+    // Размер колеса (степень двойки); задачи дальше одного оборота ждут в ячейке своего круга
+    private static final int WHEEL_SIZE = 256;
+    private static final int MASK = WHEEL_SIZE - 1;
+    // Владелец задач без явного владельца
+    private static final Object SHARED = new Object();
+
+    /**
+     * Дескриптор поставленной задачи
+     */
+    public interface Handle {
+        // Отменяет задачу; возвращает false, если она уже выполнена или отменена
+        boolean cancel();
+
+        boolean isDone();
+
+        // Абсолютный тик выполнения (-1, пока задача не перенесена из входящей очереди)
+        long dueTick();
+    }
+
+    private static final class Task implements Handle {
+        final Runnable action;
+        final Object owner;
+        final int delay;
+        long dueTick = -1;
+        volatile boolean cancelled;
+        volatile boolean done;
+
+        Task(Runnable action, Object owner, int delay) {
+            this.action = action;
+            this.owner = owner;
+            this.delay = delay;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (done || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        @Override
+        public long dueTick() {
+            return dueTick;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final List<Task>[] wheel = new List[WHEEL_SIZE];
+    private final Queue<Task> inbox = new ConcurrentLinkedQueue<>();
+    private volatile Thread serverThread;
+    private long currentTick;
+
+    // Наступившие задачи по владельцам и очередь владельцев для кругового обхода
+    private final Map<Object, ArrayDeque<Task>> ready = new HashMap<>();
+    private final ArrayDeque<Object> owners = new ArrayDeque<>();
+    private int readyCount;
+
+    // Статистика отложенной работы
+    private int lastDeferred;
+    private long totalDeferred;
+    private long lastTickNanos;
+
+    public TickScheduler() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Ставит задачу через {@code delayTicks} тиков (минимум 1). Можно вызывать из любого потока.
+     */
+    public Handle schedule(int delayTicks, Runnable action) {
+        return schedule(delayTicks, null, action);
+    }
+
+    /**
+     * Ставит задачу владельца (например, UUID игрока); задачи одного владельца выполняются по порядку,
+     * а разные владельцы делят бюджет тика поровну
+     */
+    public Handle schedule(int delayTicks, Object owner, Runnable action) {
+        Task task = new Task(action, owner == null ? SHARED : owner, Math.max(1, delayTicks));
+        if (Thread.currentThread() == serverThread) {
+            insert(task);
+        } else {
+            inbox.add(task);
+        }
+        return task;
+    }
+
+    private void insert(Task task) {
+        task.dueTick = currentTick + task.delay;
+        wheel[(int) (task.dueTick & MASK)].add(task);
+    }
+
+    // Номер текущего тика планировщика
+    public long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Продвигает колесо на один тик и выполняет задачи без ограничения времени
+     */
+    public void tick() {
+        tick(Long.MAX_VALUE);
+    }
+
+    /**
+     * Продвигает колесо на один тик и выполняет наступившие задачи, пока не исчерпан бюджет.
+     * Хотя бы одна задача выполняется всегда, поэтому очередь продвигается при любом бюджете.
+     * Вызывается в конце серверного тика.
+     */
+    public void tick(long budgetNanos) {
+        serverThread = Thread.currentThread();
+        currentTick++;
+
+        Task queued;
+        while ((queued = inbox.poll()) != null) {
+            if (!queued.cancelled) {
+                insert(queued);
+            }
+        }
+
+        // Ячейка заменяется новой: задачи, поставленные во время выполнения, не ломают обход
+        int index = (int) (currentTick & MASK);
+        List<Task> bucket = wheel[index];
+        if (!bucket.isEmpty()) {
+            wheel[index] = new ArrayList<>();
+            for (Task task : bucket) {
+                if (task.cancelled) {
+                    continue;
+                }
+                if (task.dueTick != currentTick) {
+                    // Задача следующих оборотов колеса
+                    wheel[index].add(task);
+                    continue;
+                }
+                enqueueReady(task);
+            }
+        }
+
+        if (readyCount == 0) {
+            lastDeferred = 0;
+            lastTickNanos = 0;
+            return;
+        }
+
+        long start = System.nanoTime();
+        long elapsed = 0;
+        boolean ranAny = false;
+        while (!owners.isEmpty() && (!ranAny || elapsed < budgetNanos)) {
+            Object owner = owners.poll();
+            ArrayDeque<Task> tasks = ready.get(owner);
+            Task task = tasks.poll();
+            readyCount--;
+            if (tasks.isEmpty()) {
+                ready.remove(owner);
+            } else {
+                owners.add(owner);
+            }
+
+            if (task.cancelled) {
+                continue;
+            }
+            task.done = true;
+            try {
+                task.action.run();
+            } catch (Exception e) {
+                System.out.println("[CSI] Ошибка запланированной задачи: " + e.getMessage());
+                e.printStackTrace();
+            }
+            ranAny = true;
+            elapsed = System.nanoTime() - start;
+        }
+
+        lastTickNanos = elapsed;
+        lastDeferred = readyCount;
+        totalDeferred += readyCount;
+    }
+
+    private void enqueueReady(Task task) {
+        ArrayDeque<Task> tasks = ready.get(task.owner);
+        if (tasks == null) {
+            tasks = new ArrayDeque<>();
+            ready.put(task.owner, tasks);
+            owners.add(task.owner);
+        }
+        tasks.add(task);
+        readyCount++;
+    }
+
+    // Наступившие задачи, перенесенные на следующий тик из-за бюджета
+    public int backlog() {
+        return readyCount;
+    }
+
+    // Сколько задач было отложено в последнем тике
+    public int lastDeferred() {
+        return lastDeferred;
+    }
+
+    // Сумма отложенных задач по всем тикам (задача, отложенная на два тика, учитывается дважды)
+    public long totalDeferred() {
+        return totalDeferred;
+    }
+
+    // Время выполнения задач в последнем тике (нс)
+    public long lastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * Отбрасывает все ожидающие задачи (при остановке сервера)
+     */
+    public void clear() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            for (Task task : wheel[i]) {
+                task.cancelled = true;
+            }
+            wheel[i] = new ArrayList<>();
+        }
+        Task queued;
+        while ((queued = inbox.poll()) != null) {
+            queued.cancelled = true;
+        }
+        for (ArrayDeque<Task> tasks : ready.values()) {
+            for (Task task : tasks) {
+                task.cancelled = true;
+            }
+        }
+        ready.clear();
+        owners.clear();
+        readyCount = 0;
+        lastDeferred = 0;
+        totalDeferred = 0;
+        lastTickNanos = 0;
+    }
+}
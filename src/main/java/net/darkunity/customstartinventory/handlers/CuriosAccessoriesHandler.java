@@ -6,6 +6,7 @@ import net.minecraft.nbt.Tag;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.item.ItemStack;
 import java.lang.reflect.Method;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
@@ -105,6 +106,62 @@ public class CuriosAccessoriesHandler {
         }
     }
 
+    /**
+     * Приводит слоты Curios к сохраненному списку, меняя только отличающиеся слоты.
+     * Возвращает число исправленных слотов или -1 при ошибке.
+     */
+    public static int correctCurios(ServerPlayer player, ListTag savedList) {
+        if (!hasCurios()) return 0;
+
+        try {
+            Class<?> apiClass = Class.forName(CURIOS_API_CLASS);
+            Object helper = apiClass.getMethod("getCuriosHelper").invoke(null);
+            Object optionalHandler = helper.getClass().getMethod("getCuriosHandler", net.minecraft.world.entity.LivingEntity.class).invoke(helper, player);
+
+            Optional<?> opt = (Optional<?>) optionalHandler;
+            if (opt.isEmpty()) return 0;
+
+            Object handler = opt.get();
+            Map<String, ?> curiosMap = (Map<String, ?>) handler.getClass().getMethod("getCurios").invoke(handler);
+
+            // Ожидаемое содержимое по ключу "слот#индекс"
+            Map<String, ItemStack> expected = new HashMap<>();
+            for (int i = 0; i < savedList.size(); i++) {
+                CompoundTag entryTag = savedList.getCompound(i);
+                ItemStack.parse(player.registryAccess(), entryTag.getCompound("Item"))
+                    .ifPresent(stack -> expected.put(entryTag.getString("SlotId") + "#" + entryTag.getInt("SlotIndex"), stack));
+            }
+
+            int corrected = 0;
+            for (Map.Entry<String, ?> entry : curiosMap.entrySet()) {
+                Object stacksHandler = entry.getValue();
+                Object inventory = stacksHandler.getClass().getMethod("getStacks").invoke(stacksHandler);
+                Method getStack = inventory.getClass().getMethod("getStackInSlot", int.class);
+                Method setStack = inventory.getClass().getMethod("setStackInSlot", int.class, ItemStack.class);
+
+                int slots = (int) inventory.getClass().getMethod("getSlots").invoke(inventory);
+                for (int i = 0; i < slots; i++) {
+                    ItemStack current = (ItemStack) getStack.invoke(inventory, i);
+                    ItemStack target = expected.getOrDefault(entry.getKey() + "#" + i, ItemStack.EMPTY);
+                    boolean same = current.isEmpty() ? target.isEmpty()
+                        : ItemStack.isSameItemSameComponents(current, target) && current.getCount() == target.getCount();
+                    if (!same) {
+                        setStack.invoke(inventory, i, target.copy());
+                        corrected++;
+                    }
+                }
+            }
+
+            if (corrected > 0) {
+                helper.getClass().getMethod("onInventoryTick", net.minecraft.world.entity.LivingEntity.class).invoke(helper, player);
+            }
+            return corrected;
+        } catch (Exception e) {
+            System.err.println("[CSI-Curios] Error during correction: " + e.getMessage());
+            return -1;
+        }
+    }
+
     public static void clearAccessories(ServerPlayer player) {
         if (!hasCurios()) return;
         try {
@@ -1,5 +1,6 @@
 package net.darkunity.customstartinventory.handlers;
 
+import net.darkunity.customstartinventory.InventorySyncBatcher;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.LivingEntity;
@@ -370,7 +371,7 @@ public class WispForestAccessoriesHandler {
             }
             
             System.out.println("[WispForestHandler] Loaded Accessories using ULTIMATE Fallback (Distributed).");
-            syncAccessories(player, capability);
+            InventorySyncBatcher.deferAccessorySync(player, () -> syncAccessories(player, capability));
             return true;
             
         } catch (Exception e) {
@@ -448,7 +449,7 @@ public class WispForestAccessoriesHandler {
                         deserializeMethod.setAccessible(true);
                         deserializeMethod.invoke(capability, player.registryAccess(), accessoriesTag);
                         System.out.println("[WispForestHandler] Loaded Accessories using " + name + "(Provider, CompoundTag).");
-                        syncAccessories(player, capability);
+                        InventorySyncBatcher.deferAccessorySync(player, () -> syncAccessories(player, capability));
                         return true;
                     } catch (NoSuchMethodException ignored) { } 
                 }
@@ -458,7 +459,7 @@ public class WispForestAccessoriesHandler {
                         deserializeMethod.setAccessible(true);
                         deserializeMethod.invoke(capability, accessoriesTag);
                         System.out.println("[WispForestHandler] Loaded Accessories using " + name + "(CompoundTag).");
-                        syncAccessories(player, capability);
+                        InventorySyncBatcher.deferAccessorySync(player, () -> syncAccessories(player, capability));
                         return true;
                     } catch (NoSuchMethodException ignored) { } 
                 }
@@ -532,6 +533,20 @@ public class WispForestAccessoriesHandler {
     }
 
 
+    /**
+     * Приводит аксессуары к сохраненным. У Capability нет стабильного API отдельных слотов,
+     * поэтому сравнивается сериализованное состояние, и загрузка выполняется только при отличии.
+     * Возвращает 0, если аксессуары уже совпадают, 1 после загрузки и -1 при ошибке.
+     */
+    public static int correctAccessories(ServerPlayer player, CompoundTag accessoriesTag) {
+        if (!hasAccessories() || accessoriesTag.isEmpty()) return 0;
+
+        if (accessoriesTag.equals(saveAccessories(player))) {
+            return 0;
+        }
+        return loadAccessories(player, accessoriesTag) ? 1 : -1;
+    }
+
     /**
      * Очищает все аксессуары игрока.
      */
@@ -619,7 +634,7 @@ public class WispForestAccessoriesHandler {
                 
                 if (cleared) {
                     // Синхронизация после очистки
-                    syncAccessories(player, capability);
+                    InventorySyncBatcher.deferAccessorySync(player, () -> syncAccessories(player, capability));
                 } else {
                      System.out.println("[WispForestHandler] Warning: Accessories not cleared. [FINAL FALLBACK FAILED]");
                 }